@@ -0,0 +1,315 @@
+package io.jenkins.plugins.shared_library_version_override;
+
+import com.cloudbees.hudson.plugins.folder.AbstractFolder;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Util;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Items;
+import hudson.util.FormValidation;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.jenkinsci.plugins.workflow.libs.LibraryConfiguration;
+import org.jenkinsci.plugins.workflow.libs.LibraryRetriever;
+
+/**
+ * Applies or removes a library override on many folders at once
+ *
+ * @author Cyril Pottiers
+ */
+public final class BatchOverrides {
+    private static final Logger LOGGER = Logger.getLogger(BatchOverrides.class.getName());
+
+    /**
+     * How long a version validation is awaited, in seconds
+     */
+    private static final long VALIDATION_TIMEOUT = 60L;
+
+    /**
+     * What to do on each folder
+     */
+    public enum Operation {
+        /**
+         * Add the override, or replace the version of the existing one
+         */
+        APPLY,
+        /**
+         * Remove the override of the library
+         */
+        REMOVE
+    }
+
+    /**
+     * What has been done on a folder
+     */
+    public enum Status {
+        UPDATED,
+        UNCHANGED,
+        SKIPPED,
+        FAILED
+    }
+
+    /**
+     * Result of the operation on a folder
+     */
+    public static final class FolderResult {
+        private final String folder;
+        private final Status status;
+        private final String message;
+
+        FolderResult(String folder, Status status, String message) {
+            this.folder = folder;
+            this.status = status;
+            this.message = message;
+        }
+
+        public String getFolder() {
+            return folder;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("folder", folder);
+            json.put("status", status.name());
+            json.put("message", Util.fixNull(message));
+            return json;
+        }
+
+        @Override
+        public String toString() {
+            return folder + " " + status + (message == null ? "" : " " + message);
+        }
+    }
+
+    private BatchOverrides() {}
+
+    /**
+     * Applies or removes a library override on the folders of a subtree, which full name matches a pattern.
+     * Changed folders are saved in background, see {@link OverridePersistence}.
+     * The version is validated once per distinct library, before saving any folder using it.
+     *
+     * @param operation apply or remove
+     * @param library the library name
+     * @param version the version, required to apply
+     * @param root the subtree root, null for the whole instance
+     * @param pattern a glob on the folder full names, '*' not crossing folders and '**' crossing them, null for all
+     * @return the result for each considered folder
+     */
+    @NonNull
+    public static List<FolderResult> execute(
+            @NonNull Operation operation,
+            @NonNull String library,
+            @CheckForNull String version,
+            @CheckForNull ItemGroup<?> root,
+            @CheckForNull String pattern) {
+        String name = Util.fixEmptyAndTrim(library);
+        String ver = Util.fixEmptyAndTrim(version);
+        if (name == null) {
+            throw new IllegalArgumentException(Messages.LibraryCustomConfiguration_Validation_NameUnknown());
+        }
+        if (operation == Operation.APPLY && ver == null) {
+            throw new IllegalArgumentException(Messages.LibraryCustomConfiguration_Validation_EmptyVersion());
+        }
+        Pattern regex = pattern == null ? null : Pattern.compile(globToRegex(pattern));
+        ItemGroup<?> group = root == null ? Jenkins.get() : root;
+
+        List<AbstractFolder<?>> folders = new ArrayList<>();
+        if (group instanceof AbstractFolder) {
+            folders.add((AbstractFolder<?>) group);
+        }
+        for (AbstractFolder<?> f : Items.allItems(group, AbstractFolder.class)) {
+            folders.add(f);
+        }
+
+        // the version is validated once per distinct library, in the context of the caller
+        Item context = group instanceof Item ? (Item) group : null;
+        Map<LibraryRetriever, FormValidation> validations = new IdentityHashMap<>();
+        List<FolderResult> results = new ArrayList<>();
+        for (AbstractFolder<?> f : folders) {
+            if (regex != null && !regex.matcher(f.getFullName()).matches()) {
+                continue;
+            }
+            results.add(execute(operation, name, ver, f, context, validations));
+        }
+        return results;
+    }
+
+    private static FolderResult execute(
+            Operation operation,
+            String name,
+            String version,
+            AbstractFolder<?> f,
+            @CheckForNull Item context,
+            Map<LibraryRetriever, FormValidation> validations) {
+        String folder = f.getFullName();
+        if (!f.hasPermission(Item.CONFIGURE)) {
+            return new FolderResult(folder, Status.SKIPPED, "Missing " + Item.CONFIGURE.name + " permission");
+        }
+        FolderConfigurations prop = f.getProperties().get(FolderConfigurations.class);
+        List<LibraryCustomConfiguration> items =
+                prop == null ? new ArrayList<>() : new ArrayList<>(Arrays.asList(prop.getOverrides()));
+        boolean changed;
+        if (operation == Operation.REMOVE) {
+            // the scoped and time-boxed overrides are not managed in bulk, as for APPLY
+            changed = items.removeIf(item -> name.equals(item.getName()) && isPermanent(item));
+        } else {
+            FormValidation validation = validate(name, version, f, context, validations);
+            if (validation.kind != FormValidation.Kind.OK) {
+                return new FolderResult(folder, Status.SKIPPED, validation.getMessage());
+            }
+            changed = apply(items, name, version);
+        }
+        if (!changed) {
+            return new FolderResult(folder, Status.UNCHANGED, null);
+        }
+        try {
+            // saved in background, several changes of the folder are written once
+            OverridePersistence.get().update(f, items);
+            return new FolderResult(folder, Status.UPDATED, null);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "BatchOverrides cannot save " + folder, e);
+            return new FolderResult(folder, Status.FAILED, e.getMessage());
+        }
+    }
+
+    /**
+     * Sets the version of a library, in place of its first override, removing the other ones
+     */
+    private static boolean apply(List<LibraryCustomConfiguration> items, String name, String version) {
+        int first = -1;
+        int count = 0;
+        // scoped overrides are kept, they take precedence for their jobs, and time-boxed ones for their period
+        for (int i = 0; i < items.size(); i++) {
+            if (name.equals(items.get(i).getName()) && isPermanent(items.get(i))) {
+                first = first < 0 ? i : first;
+                count++;
+            }
+        }
+        if (count == 1 && version.equals(items.get(first).getVersion())) {
+            return false;
+        }
+        LibraryCustomConfiguration override = new LibraryCustomConfiguration(name, version);
+        if (first < 0) {
+            items.add(override);
+        } else {
+            for (int i = items.size() - 1; i > first; i--) {
+                if (name.equals(items.get(i).getName()) && isPermanent(items.get(i))) {
+                    items.remove(i);
+                }
+            }
+            items.set(first, override);
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether an override applies to all the jobs of its folder at any time, the only ones managed in bulk
+     */
+    private static boolean isPermanent(LibraryCustomConfiguration item) {
+        return !item.isScoped() && !item.isTimeBoxed();
+    }
+
+    private static FormValidation validate(
+            String name,
+            String version,
+            AbstractFolder<?> f,
+            @CheckForNull Item context,
+            Map<LibraryRetriever, FormValidation> validations) {
+        LibraryConfiguration lib = ResolutionContext.of(f).getLibrary(name);
+        if (lib == null) {
+            return FormValidation.error(Messages.LibraryCustomConfiguration_Validation_NameUnknown());
+        }
+        if (!lib.isAllowVersionOverride()) {
+            return FormValidation.error(Messages.LibraryCustomConfiguration_Validation_ImmutableVersion());
+        }
+        // the folders sharing a library share its validation
+        return validations.computeIfAbsent(
+                lib.getRetriever(), retriever -> validate(name, version, retriever, context));
+    }
+
+    private static FormValidation validate(
+            String name, String version, LibraryRetriever retriever, @CheckForNull Item context) {
+        try {
+            FormValidation validation = VersionValidationCache.get()
+                    .validateAsync(name, version, retriever, context)
+                    .get(VALIDATION_TIMEOUT, TimeUnit.SECONDS);
+            if (validation.kind != FormValidation.Kind.OK) {
+                return FormValidation.error(Messages.LibraryCustomConfiguration_Validation_UnknownVersion());
+            }
+            return validation;
+        } catch (TimeoutException | ExecutionException e) {
+            return FormValidation.error(Messages.LibraryCustomConfiguration_Validation_Pending());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return FormValidation.error(Messages.LibraryCustomConfiguration_Validation_Pending());
+        }
+    }
+
+    /**
+     * Converts the results to JSON
+     *
+     * @param results the results
+     * @return the results as a JSON array
+     */
+    @NonNull
+    public static JSONArray toJSON(@NonNull List<FolderResult> results) {
+        JSONArray json = new JSONArray();
+        for (FolderResult result : results) {
+            json.add(result.toJSON());
+        }
+        return json;
+    }
+
+    /**
+     * Converts a glob on item full names to a regular expression
+     *
+     * @param glob the glob, '*' not crossing folders, '**' crossing them and '?' matching one character
+     * @return the regular expression
+     */
+    @NonNull
+    static String globToRegex(@NonNull String glob) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                if (c == '?') {
+                    regex.append("[^/]");
+                } else if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                    regex.append(".*");
+                    i++;
+                } else {
+                    regex.append("[^/]*");
+                }
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return regex.toString();
+    }
+}
@@ -9,6 +9,7 @@ import hudson.Extension;
 import hudson.model.Item;
 import hudson.model.ItemGroup;
 import hudson.model.Job;
+import hudson.model.listeners.ItemListener;
 import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -25,11 +26,35 @@ import org.kohsuke.stapler.DataBoundSetter;
 public class FolderConfigurations extends AbstractFolderProperty<AbstractFolder<?>> {
     private static final Logger LOGGER = Logger.getLogger(FolderConfigurations.class.getName());
 
-    private List<LibraryCustomConfiguration> overrides = Collections.emptyList();
+    /**
+     * Maximum number of overridden versions kept per library
+     */
+    private static final int MAX_INTERNED_VERSIONS = 32;
+
+    /**
+     * Overridden copies of the libraries, dropped with the original library
+     */
+    private static final Map<LibraryConfiguration, Map<String, LibraryConfiguration>> INTERNED = new WeakHashMap<>();
+
+    private volatile List<LibraryCustomConfiguration> overrides = Collections.emptyList();
+
+    /**
+     * Active overrides used to resolve libraries, replaced as a whole when overrides are set or flip
+     */
+    private transient volatile Snapshot snapshot = Snapshot.EMPTY;
 
     @DataBoundConstructor
     public FolderConfigurations() {}
 
+    private Object readResolve() {
+        if (overrides == null) {
+            overrides = new ArrayList<>();
+        }
+        snapshot = new Snapshot(overrides, System.currentTimeMillis());
+        schedule();
+        return this;
+    }
+
     /**
      * Returns the overrides configurations added to the folder
      *
@@ -37,7 +62,9 @@ public class FolderConfigurations extends AbstractFolderProperty<AbstractFolder<
      */
     public LibraryCustomConfiguration[] getOverrides() {
         LibraryCustomConfiguration[] lcc = overrides.toArray(new LibraryCustomConfiguration[0]);
-        LOGGER.log(Level.FINER, "get overrides : ({0})\n", lcc);
+        if (LOGGER.isLoggable(Level.FINER)) {
+            LOGGER.log(Level.FINER, "get overrides : ({0})\n", Arrays.toString(lcc));
+        }
         return lcc;
     }
 
@@ -49,7 +76,140 @@ public class FolderConfigurations extends AbstractFolderProperty<AbstractFolder<
     @DataBoundSetter
     public void setOverrides(List<LibraryCustomConfiguration> items) {
         LOGGER.log(Level.FINER, "Add new overrides : ({0})\n", items);
-        this.overrides = items;
+        List<LibraryCustomConfiguration> list = items == null ? new ArrayList<>() : new ArrayList<>(items);
+        this.overrides = list;
+        this.snapshot = new Snapshot(list, System.currentTimeMillis());
+        schedule();
+        if (owner != null) {
+            OverrideIndex.get().invalidate(owner.getFullName());
+        }
+    }
+
+    @Override
+    protected void setOwner(AbstractFolder<?> owner) {
+        super.setOwner(owner);
+        schedule();
+    }
+
+    /**
+     * Recomputes the active overrides, when one of them is activated or expires
+     */
+    void refresh() {
+        if (owner == null || owner.getProperties().get(FolderConfigurations.class) != this) {
+            // replaced by another configuration of the folder
+            return;
+        }
+        snapshot = new Snapshot(overrides, System.currentTimeMillis());
+        schedule();
+        if (owner != null) {
+            LOGGER.log(Level.FINE, "FolderConfigurations refreshed the active overrides of {0}\n", owner.getFullName());
+            OverrideIndex.get().invalidate(owner.getFullName());
+        }
+    }
+
+    /**
+     * Schedules the next activation or expiry of an override, once the folder is known.
+     * Keyed by the folder full name, it replaces the pending callback of a previous configuration of the folder.
+     */
+    private void schedule() {
+        if (owner == null) {
+            return;
+        }
+        if (snapshot.nextChange != Long.MAX_VALUE) {
+            OverrideSchedule.get().schedule(owner.getFullName(), snapshot.nextChange, this::refresh);
+        } else {
+            OverrideSchedule.get().cancel(owner.getFullName());
+        }
+    }
+
+    /**
+     * Starts listing in background the refs of the libraries which versions are patterns,
+     * so that they are known when the builds start
+     */
+    void listRefs() {
+        if (owner == null) {
+            return;
+        }
+        ResolutionContext context = ResolutionContext.of(owner);
+        for (LibraryCustomConfiguration item : overrides) {
+            if (item != null && item.getVersion() != null && VersionPattern.isPattern(item.getVersion())) {
+                LibraryConfiguration lib = context.getLibrary(item.getName());
+                if (lib != null) {
+                    RefIndex.get().getRefsAsync(lib.getRetriever(), owner);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the overrides configurations used to resolve libraries: named, with a version, active, one per library
+     *
+     * @return The overrides configurations used to resolve libraries, without the scoped ones
+     */
+    @NonNull
+    List<LibraryCustomConfiguration> getEffectiveOverrides() {
+        return snapshot.overrides;
+    }
+
+    /**
+     * Returns the overrides configurations only applying to some jobs, named, with a version and active
+     *
+     * @return The scoped overrides configurations, in order
+     */
+    @NonNull
+    List<LibraryCustomConfiguration> getScopedOverrides() {
+        return snapshot.scoped;
+    }
+
+    /**
+     * Returns the override configuration of a library
+     *
+     * @param name the library name
+     * @return the override configuration or null if the library is not overridden for all the jobs of this folder
+     */
+    @CheckForNull
+    public LibraryCustomConfiguration getOverride(String name) {
+        return snapshot.byName.get(name);
+    }
+
+    /**
+     * Immutable view of the overrides of a folder
+     */
+    private static final class Snapshot {
+        private static final Snapshot EMPTY = new Snapshot(Collections.emptyList(), 0L);
+
+        private final List<LibraryCustomConfiguration> overrides;
+        private final Map<String, LibraryCustomConfiguration> byName;
+        private final List<LibraryCustomConfiguration> scoped;
+
+        /**
+         * Next activation or expiry of an override, Long.MAX_VALUE if none
+         */
+        private final long nextChange;
+
+        Snapshot(List<LibraryCustomConfiguration> items, long now) {
+            // the first override of a library wins, incomplete and inactive ones are skipped
+            Map<String, LibraryCustomConfiguration> map = new LinkedHashMap<>();
+            List<LibraryCustomConfiguration> scopedItems = new ArrayList<>();
+            long next = Long.MAX_VALUE;
+            for (LibraryCustomConfiguration item : items) {
+                if (item != null && item.getName() != null && item.getVersion() != null) {
+                    next = Math.min(next, item.getNextChange(now));
+                    if (!item.isActive(now)) {
+                        continue;
+                    }
+                    if (item.isScoped()) {
+                        scopedItems.add(item);
+                    } else {
+                        map.putIfAbsent(item.getName(), item);
+                    }
+                }
+            }
+            this.byName = Collections.unmodifiableMap(map);
+            this.overrides = Collections.unmodifiableList(new ArrayList<>(map.values()));
+            this.scoped = Collections.unmodifiableList(scopedItems);
+            this.nextChange = next;
+        }
     }
 
     /**
@@ -71,13 +231,11 @@ public class FolderConfigurations extends AbstractFolderProperty<AbstractFolder<
      */
     public static Collection<LibraryConfiguration> getAllLibrariesForGroup(ItemGroup<?> group) {
         List<LibraryConfiguration> libraries = new ArrayList<>();
-        GlobalLibraries libs = GlobalLibraries.get();
-        libraries.addAll(libs.getLibraries());
+        libraries.addAll(OverrideIndex.get().getTrustedLibraries());
         libraries.addAll(getAllUntrustedLibrariesForGroup(group));
-        LOGGER.log(
-                Level.FINE,
-                "FolderConfigurations.getAllLibrariesForGroup {0}\n",
-                libraries.stream().map(LibraryConfiguration::getName).collect(Collectors.toList()));
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE, "FolderConfigurations.getAllLibrariesForGroup {0}\n", getNames(libraries));
+        }
         return libraries;
     }
 
@@ -87,54 +245,185 @@ public class FolderConfigurations extends AbstractFolderProperty<AbstractFolder<
      * @return the known Untrusted LibraryConfigurations
      */
     public static Collection<LibraryConfiguration> getAllUntrustedLibrariesForGroup(ItemGroup<?> group) {
-        List<LibraryConfiguration> libraries = new ArrayList<>();
-        // Get all global untrusted libraries
-        GlobalUntrustedLibraries libs = GlobalUntrustedLibraries.get();
-        libraries.addAll(libs.getLibraries());
-
-        // Get all folder local libraries
-        for (ItemGroup<?> g = group; g instanceof AbstractFolder; g = ((AbstractFolder<?>) g).getParent()) {
-            AbstractFolder<?> f = (AbstractFolder<?>) g;
-            FolderLibraries prop = f.getProperties().get(FolderLibraries.class);
-            if (prop != null) {
-                libraries.addAll(prop.getLibraries());
-            }
+        // Get all global untrusted libraries, then all folder local libraries
+        List<LibraryConfiguration> libraries = OverrideIndex.get().getUntrustedLibraries(group);
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE, "FolderConfigurations.getAllUntrustedLibrariesForGroup {0}\n", getNames(libraries));
         }
-        LOGGER.log(
-                Level.FINE,
-                "FolderConfigurations.getAllUntrustedLibrariesForGroup {0}\n",
-                libraries.stream().map(LibraryConfiguration::getName).collect(Collectors.toList()));
         return libraries;
     }
 
+    /**
+     * Return the names of LibraryConfigurations, for diagnostics
+     * @param libraries the LibraryConfigurations
+     * @return the names
+     */
+    static List<String> getNames(Collection<LibraryConfiguration> libraries) {
+        return libraries.stream().map(LibraryConfiguration::getName).collect(Collectors.toList());
+    }
+
+    /**
+     * Index LibraryConfigurations by name. When several libraries share a name, the first one is kept.
+     * @param libs the LibraryConfigurations, by decreasing precedence
+     * @return the LibraryConfigurations by name
+     */
+    public static Map<String, LibraryConfiguration> indexByName(Collection<LibraryConfiguration> libs) {
+        Map<String, LibraryConfiguration> byName = new HashMap<>();
+        for (LibraryConfiguration lib : libs) {
+            byName.putIfAbsent(lib.getName(), lib);
+        }
+        return Collections.unmodifiableMap(byName);
+    }
+
     /**
      * Return a copy of a LibraryConfiguration with a new version, if allowed
      * @param item the override configuration desired
-     * @param libs the LibraryConfigurations known for the current context
+     * @param libs the LibraryConfigurations known for the current context, by decreasing precedence
      * @return the copy of the LibraryConfiguration with the new version or null if library don't allow version override
      */
     public static LibraryConfiguration getLibraryConfiguration(
             LibraryCustomConfiguration item, Collection<LibraryConfiguration> libs) {
-        LibraryConfiguration libConfig = null;
-        for (LibraryConfiguration lib : libs) {
-            if (lib.getName().equals(item.getName())) {
-                // if original library don't allow version override, so don't take it
-                if (!lib.isAllowVersionOverride()) {
-                    LOGGER.log(
-                            Level.FINE,
-                            "FolderConfigurations.getLibraryConfiguration {0} don't allow version override, don't take it.\n",
-                            lib.getName());
-                    continue;
-                }
+        return getLibraryConfiguration(item, indexByName(libs), null);
+    }
+
+    /**
+     * Return a copy of a LibraryConfiguration with a new version, if allowed
+     * @param item the override configuration desired
+     * @param libs the LibraryConfigurations known for the current context, by name
+     * @param context the folder resolving the override, which credentials list the refs of a version pattern
+     * @return the copy of the LibraryConfiguration with the new version or null if library don't allow version override
+     */
+    public static LibraryConfiguration getLibraryConfiguration(
+            LibraryCustomConfiguration item, Map<String, LibraryConfiguration> libs, @CheckForNull Item context) {
+        LibraryConfiguration lib = libs.get(item.getName());
+        if (lib == null) {
+            ResolutionListener.fireOverrideSkipped(item.getName(), ResolutionListener.SkipReason.UNKNOWN_LIBRARY);
+            return null;
+        }
+        // if original library don't allow version override, so don't take it
+        if (!lib.isAllowVersionOverride()) {
+            LOGGER.log(
+                    Level.FINE,
+                    "FolderConfigurations.getLibraryConfiguration {0} don't allow version override, don't take it.\n",
+                    lib.getName());
+            ResolutionListener.fireOverrideSkipped(
+                    item.getName(), ResolutionListener.SkipReason.VERSION_OVERRIDE_NOT_ALLOWED);
+            return null;
+        }
+        String version = item.getVersion();
+        if (VersionPattern.isPattern(version)) {
+            // resolved against the refs listed in background, never remotely
+            version = RefIndex.get().resolve(lib.getRetriever(), version, context);
+            if (version == null) {
+                LOGGER.log(
+                        Level.WARNING,
+                        "FolderConfigurations.getLibraryConfiguration {0} has no known ref matching {1}.\n",
+                        new Object[] {lib.getName(), item.getVersion()});
+                ResolutionListener.fireOverrideSkipped(
+                        item.getName(), ResolutionListener.SkipReason.UNRESOLVED_VERSION);
+                return null;
+            }
+        }
+        ResolutionListener.fireOverrideMatched(item.getName());
+        return intern(lib, version);
+    }
+
+    /**
+     * Return the copy of a LibraryConfiguration with a new version, reusing the previous one if the library is unchanged
+     * @param lib the original LibraryConfiguration
+     * @param version the new version
+     * @return the copy of the LibraryConfiguration with the new version
+     */
+    private static LibraryConfiguration intern(LibraryConfiguration lib, String version) {
+        synchronized (INTERNED) {
+            Map<String, LibraryConfiguration> versions = INTERNED.computeIfAbsent(lib, k -> new InternedVersions());
+            LibraryConfiguration libConfig = versions.get(version);
+            if (libConfig == null || !isCopyOf(libConfig, lib)) {
                 libConfig = new LibraryConfiguration(lib.getName(), lib.getRetriever());
-                libConfig.setDefaultVersion(item.getVersion());
+                libConfig.setDefaultVersion(version);
                 libConfig.setImplicit(lib.isImplicit());
                 libConfig.setAllowVersionOverride(lib.isAllowVersionOverride());
                 libConfig.setIncludeInChangesets(lib.getIncludeInChangesets());
                 libConfig.setCachingConfiguration(lib.getCachingConfiguration());
+                versions.put(version, libConfig);
+            }
+            return libConfig;
+        }
+    }
+
+    private static boolean isCopyOf(LibraryConfiguration libConfig, LibraryConfiguration lib) {
+        return libConfig.getName().equals(lib.getName())
+                && libConfig.getRetriever() == lib.getRetriever()
+                && libConfig.isImplicit() == lib.isImplicit()
+                && libConfig.isAllowVersionOverride() == lib.isAllowVersionOverride()
+                && libConfig.getIncludeInChangesets() == lib.getIncludeInChangesets()
+                && libConfig.getCachingConfiguration() == lib.getCachingConfiguration();
+    }
+
+    /**
+     * Overridden versions of a library, the least recently used are evicted
+     */
+    private static final class InternedVersions extends LinkedHashMap<String, LibraryConfiguration> {
+        private static final long serialVersionUID = 1L;
+
+        InternedVersions() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, LibraryConfiguration> eldest) {
+            return size() > MAX_INTERNED_VERSIONS;
+        }
+    }
+
+    /**
+     * Return the copies of the LibraryConfigurations overridden by a list of override configurations.
+     * The override configurations of unknown libraries are skipped silently, the caller reports them once
+     * for all the LibraryConfigurations it looks them up in.
+     * @param items the override configurations desired
+     * @param libs the LibraryConfigurations known for the current context, by name
+     * @param context the folder resolving the overrides, which credentials list the refs of a version pattern
+     * @return the copies of the LibraryConfigurations allowing version override, in the order of the items
+     */
+    public static List<LibraryConfiguration> getLibraryConfigurations(
+            List<LibraryCustomConfiguration> items,
+            Map<String, LibraryConfiguration> libs,
+            @CheckForNull Item context) {
+        List<LibraryConfiguration> libraries = new ArrayList<>(items.size());
+        for (LibraryCustomConfiguration item : items) {
+            if (!libs.containsKey(item.getName())) {
+                continue;
+            }
+            LibraryConfiguration libConfig = getLibraryConfiguration(item, libs, context);
+            if (libConfig != null) {
+                libraries.add(libConfig);
+            }
+        }
+        return libraries;
+    }
+
+    /**
+     * Drops the pending callbacks of the deleted folders, and moves the ones of the renamed folders
+     */
+    @Extension
+    public static class ItemListenerImpl extends ItemListener {
+        @Override
+        public void onDeleted(Item item) {
+            if (item instanceof AbstractFolder) {
+                OverrideSchedule.get().cancel(item.getFullName());
+            }
+        }
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            if (item instanceof AbstractFolder) {
+                OverrideSchedule.get().cancel(oldFullName);
+                FolderConfigurations prop = ((AbstractFolder<?>) item).getProperties().get(FolderConfigurations.class);
+                if (prop != null) {
+                    prop.schedule();
+                }
             }
         }
-        return libConfig;
     }
 
     /**
@@ -148,36 +437,18 @@ public class FolderConfigurations extends AbstractFolderProperty<AbstractFolder<
             return true;
         }
 
-        private Collection<LibraryConfiguration> forGroup(@CheckForNull ItemGroup<?> group, boolean checkPermission) {
-            // Get all global libraries
-            Collection<LibraryConfiguration> allLibs = GlobalLibraries.get().getLibraries();
-            List<LibraryConfiguration> libraries = new ArrayList<>();
-            for (ItemGroup<?> g = group; g instanceof AbstractFolder; g = ((AbstractFolder<?>) g).getParent()) {
-                AbstractFolder<?> f = (AbstractFolder<?>) g;
-                if (!checkPermission || f.hasPermission(Item.CONFIGURE)) {
-                    FolderConfigurations prop = f.getProperties().get(FolderConfigurations.class);
-                    if (prop != null) {
-                        for (LibraryCustomConfiguration item : prop.getOverrides()) {
-                            LibraryConfiguration libConfig = getLibraryConfiguration(item, allLibs);
-                            if (libConfig != null) {
-                                libraries.add(libConfig);
-                            }
-                        }
-                    }
-                }
-            }
-            LOGGER.log(
-                    Level.FINE,
-                    "CustomFolderLibraryResolver.forGroup {0}\n",
-                    libraries.stream().map(LibraryConfiguration::getName).collect(Collectors.toList()));
-            return libraries;
-        }
-
         @NonNull
         @Override
         public Collection<LibraryConfiguration> forJob(
                 @NonNull Job<?, ?> job, @NonNull Map<String, String> libraryVersions) {
-            return forGroup(job.getParent(), false);
+            long start = System.nanoTime();
+            Collection<LibraryConfiguration> libraries =
+                    OverrideIndex.get().getTrustedOverrides(job, libraryVersions);
+            ResolutionListener.fireResolved(true, System.nanoTime() - start);
+            if (!libraries.isEmpty()) {
+                ResolutionListener.fireJobResolved(job, true, libraries);
+            }
+            return libraries;
         }
     }
 
@@ -192,36 +463,18 @@ public class FolderConfigurations extends AbstractFolderProperty<AbstractFolder<
             return false;
         }
 
-        private Collection<LibraryConfiguration> forGroup(@CheckForNull ItemGroup<?> group, boolean checkPermission) {
-            // Get all untrusted libraries
-            Collection<LibraryConfiguration> allLibs = getAllUntrustedLibrariesForGroup(group);
-            List<LibraryConfiguration> libraries = new ArrayList<>();
-            for (ItemGroup<?> g = group; g instanceof AbstractFolder; g = ((AbstractFolder<?>) g).getParent()) {
-                AbstractFolder<?> f = (AbstractFolder<?>) g;
-                if (!checkPermission || f.hasPermission(Item.CONFIGURE)) {
-                    FolderConfigurations prop = f.getProperties().get(FolderConfigurations.class);
-                    if (prop != null) {
-                        for (LibraryCustomConfiguration item : prop.getOverrides()) {
-                            LibraryConfiguration libConfig = getLibraryConfiguration(item, allLibs);
-                            if (libConfig != null) {
-                                libraries.add(libConfig);
-                            }
-                        }
-                    }
-                }
-            }
-            LOGGER.log(
-                    Level.FINE,
-                    "CustomUntrustedLibraryResolver.forGroup {0}\n",
-                    libraries.stream().map(LibraryConfiguration::getName).collect(Collectors.toList()));
-            return libraries;
-        }
-
         @NonNull
         @Override
         public Collection<LibraryConfiguration> forJob(
                 @NonNull Job<?, ?> job, @NonNull Map<String, String> libraryVersions) {
-            return forGroup(job.getParent(), false);
+            long start = System.nanoTime();
+            Collection<LibraryConfiguration> libraries =
+                    OverrideIndex.get().getUntrustedOverrides(job, libraryVersions);
+            ResolutionListener.fireResolved(false, System.nanoTime() - start);
+            if (!libraries.isEmpty()) {
+                ResolutionListener.fireJobResolved(job, false, libraries);
+            }
+            return libraries;
         }
     }
 }
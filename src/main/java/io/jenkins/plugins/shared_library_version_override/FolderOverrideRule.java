@@ -0,0 +1,58 @@
+package io.jenkins.plugins.shared_library_version_override;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import java.util.*;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+/**
+ * Overrides configurations defined globally for a folder path, applying to the folder and all its descendants
+ *
+ * @author Cyril Pottiers
+ */
+public class FolderOverrideRule extends AbstractDescribableImpl<FolderOverrideRule> {
+    private final String path;
+    private List<LibraryCustomConfiguration> overrides = new ArrayList<>();
+
+    /**
+     * @param path the folder full name, empty for all folders
+     */
+    @DataBoundConstructor
+    public FolderOverrideRule(String path) {
+        String p = Util.fixNull(path).trim();
+        while (p.startsWith("/")) {
+            p = p.substring(1);
+        }
+        while (p.endsWith("/")) {
+            p = p.substring(0, p.length() - 1);
+        }
+        this.path = p;
+    }
+
+    @NonNull
+    public String getPath() {
+        // null when loaded without a path element
+        return Util.fixNull(path);
+    }
+
+    public LibraryCustomConfiguration[] getOverrides() {
+        return overrides.toArray(new LibraryCustomConfiguration[0]);
+    }
+
+    @DataBoundSetter
+    public void setOverrides(List<LibraryCustomConfiguration> items) {
+        this.overrides = items == null ? new ArrayList<>() : new ArrayList<>(items);
+    }
+
+    @NonNull
+    List<LibraryCustomConfiguration> getOverrideList() {
+        return overrides == null ? Collections.emptyList() : overrides;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<FolderOverrideRule> {}
+}
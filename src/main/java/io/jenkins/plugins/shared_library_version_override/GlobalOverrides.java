@@ -0,0 +1,173 @@
+package io.jenkins.plugins.shared_library_version_override;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.ExtensionList;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.GlobalConfiguration;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.StaplerRequest;
+
+/**
+ * Overrides configurations defined centrally by folder path.
+ * Rules are stored in a trie of path segments, each node holding the overrides inherited from its ancestors,
+ * so that the overrides applying to a folder are found by a single descent without loading any folder.
+ * They are shadowed by the {@link FolderConfigurations} of the folder and of its ancestors.
+ *
+ * @author Cyril Pottiers
+ */
+@Extension
+public class GlobalOverrides extends GlobalConfiguration {
+    private static final Logger LOGGER = Logger.getLogger(GlobalOverrides.class.getName());
+
+    private volatile List<FolderOverrideRule> rules = new ArrayList<>();
+
+    /**
+     * Active rules by path segment, replaced as a whole when rules are set or flip
+     */
+    private transient volatile Node trie;
+
+    public GlobalOverrides() {
+        load();
+        if (rules == null) {
+            rules = new ArrayList<>();
+        }
+        trie = Node.build(rules, System.currentTimeMillis());
+        if (trie.nextChange != Long.MAX_VALUE) {
+            OverrideSchedule.get().schedule(this, trie.nextChange, this::refresh);
+        }
+    }
+
+    /**
+     * Returns the global overrides of the current Jenkins instance
+     *
+     * @return the global overrides
+     */
+    public static GlobalOverrides get() {
+        return ExtensionList.lookupSingleton(GlobalOverrides.class);
+    }
+
+    public FolderOverrideRule[] getRules() {
+        return rules.toArray(new FolderOverrideRule[0]);
+    }
+
+    @DataBoundSetter
+    public void setRules(List<FolderOverrideRule> items) {
+        LOGGER.log(Level.FINER, "Set global override rules : ({0})\n", items);
+        List<FolderOverrideRule> list = items == null ? new ArrayList<>() : new ArrayList<>(items);
+        this.rules = list;
+        refresh();
+    }
+
+    /**
+     * Recomputes the active rules, when one of them is activated or expires
+     */
+    void refresh() {
+        trie = Node.build(rules, System.currentTimeMillis());
+        if (trie.nextChange != Long.MAX_VALUE) {
+            OverrideSchedule.get().schedule(this, trie.nextChange, this::refresh);
+        } else {
+            OverrideSchedule.get().cancel(this);
+        }
+        OverrideIndex.get().invalidateAll();
+    }
+
+    @Override
+    public boolean configure(StaplerRequest req, JSONObject json) throws FormException {
+        // an empty list is not submitted
+        setRules(Collections.emptyList());
+        req.bindJSON(this, json);
+        save();
+        return true;
+    }
+
+    /**
+     * Returns the global overrides applying to a folder, nearest path first
+     *
+     * @param fullName the folder full name
+     * @return the global overrides applying to the folder
+     */
+    @NonNull
+    OverrideIndex.Effective getPolicy(@NonNull String fullName) {
+        Node node = trie;
+        OverrideIndex.Effective policy = node.policy;
+        int start = 0;
+        while (start < fullName.length() && !node.children.isEmpty()) {
+            int end = fullName.indexOf('/', start);
+            if (end < 0) {
+                end = fullName.length();
+            }
+            node = node.children.get(fullName.substring(start, end));
+            if (node == null) {
+                break;
+            }
+            policy = node.policy;
+            start = end + 1;
+        }
+        return policy;
+    }
+
+    /**
+     * Trie node for a path segment, with the overrides applying to its path
+     */
+    private static final class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        private final List<LibraryCustomConfiguration> own = new ArrayList<>();
+        private OverrideIndex.Effective policy = OverrideIndex.Effective.EMPTY;
+
+        /**
+         * On the root, the next activation or expiry of a rule, Long.MAX_VALUE if none
+         */
+        private long nextChange = Long.MAX_VALUE;
+
+        static Node build(List<FolderOverrideRule> rules, long now) {
+            Node root = new Node();
+            for (FolderOverrideRule rule : rules) {
+                Node node = root;
+                if (!rule.getPath().isEmpty()) {
+                    for (String segment : rule.getPath().split("/")) {
+                        node = node.children.computeIfAbsent(segment, k -> new Node());
+                    }
+                }
+                for (LibraryCustomConfiguration item : rule.getOverrideList()) {
+                    if (item == null) {
+                        continue;
+                    }
+                    root.nextChange = Math.min(root.nextChange, item.getNextChange(now));
+                    if (item.isActive(now)) {
+                        node.own.add(item);
+                    }
+                }
+            }
+            root.compile("", OverrideIndex.Effective.EMPTY);
+            return root;
+        }
+
+        /**
+         * Computes the overrides of each node from the ones of its parent, once
+         */
+        private void compile(String path, OverrideIndex.Effective inherited) {
+            // the first override of a library wins, incomplete ones are skipped
+            Map<String, LibraryCustomConfiguration> unscoped = new LinkedHashMap<>();
+            List<LibraryCustomConfiguration> scoped = new ArrayList<>();
+            for (LibraryCustomConfiguration item : own) {
+                if (item != null && item.getName() != null && item.getVersion() != null) {
+                    if (item.isScoped()) {
+                        scoped.add(item);
+                    } else {
+                        unscoped.putIfAbsent(item.getName(), item);
+                    }
+                }
+            }
+            policy = unscoped.isEmpty() && scoped.isEmpty()
+                    ? inherited
+                    : inherited.child(path, new ArrayList<>(unscoped.values()), scoped);
+            for (Map.Entry<String, Node> child : children.entrySet()) {
+                child.getValue().compile(path.isEmpty() ? child.getKey() : path + "/" + child.getKey(), policy);
+            }
+        }
+    }
+}
@@ -1,22 +1,37 @@
 package io.jenkins.plugins.shared_library_version_override;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import hudson.Extension;
 import hudson.ExtensionList;
 import hudson.Util;
 import hudson.model.AbstractDescribableImpl;
 import hudson.model.Descriptor;
 import hudson.model.Item;
-import hudson.model.ItemGroup;
 import hudson.util.FormValidation;
+import hudson.util.HttpResponses;
 import hudson.util.ListBoxModel;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
 import org.jenkinsci.plugins.workflow.libs.LibraryConfiguration;
 import org.jenkinsci.plugins.workflow.libs.LibraryResolver;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.HttpResponse;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.Stapler;
 import org.kohsuke.stapler.verb.POST;
@@ -29,9 +44,48 @@ import org.kohsuke.stapler.verb.POST;
 public class LibraryCustomConfiguration extends AbstractDescribableImpl<LibraryCustomConfiguration> {
     private static final Logger LOGGER = Logger.getLogger(LibraryCustomConfiguration.class.getName());
 
+    /**
+     * How long the bulk validation waits for all the results, in milliseconds
+     */
+    private static final long BULK_WAIT = 10_000L;
+
     public String name;
     public String version;
 
+    /**
+     * Glob on the job name, '*' matching any characters, null for all jobs
+     */
+    public String jobPattern;
+
+    /**
+     * Glob on the branch name of multibranch jobs, null for all jobs
+     */
+    public String branchPattern;
+
+    /**
+     * Category of the SCM head of multibranch jobs, one of {@link HeadCategory}, null for all jobs
+     */
+    public String headCategory;
+
+    /**
+     * Instant from which the override applies, ISO-8601 date-time, null for always
+     */
+    public String activeFrom;
+
+    /**
+     * Instant from which the override no longer applies, ISO-8601 date-time, null for never
+     */
+    public String activeUntil;
+
+    /**
+     * Categories of SCM heads
+     */
+    public enum HeadCategory {
+        BRANCH,
+        CHANGE_REQUEST,
+        TAG
+    }
+
     @DataBoundConstructor
     public LibraryCustomConfiguration(String name, String version) {
         this.name = Util.fixEmptyAndTrim(name);
@@ -46,31 +100,168 @@ public class LibraryCustomConfiguration extends AbstractDescribableImpl<LibraryC
         return version;
     }
 
-    @Extension
-    public static class DescriptorImpl extends Descriptor<LibraryCustomConfiguration> {
+    public String getJobPattern() {
+        return jobPattern;
+    }
 
-        private ItemGroup<?> getItemGroupFromItem(Item item) {
-            ItemGroup<?> group = null;
-            if (item != null) {
-                if (ItemGroup.class.isAssignableFrom(item.getClass())) {
-                    group = (ItemGroup<?>) item;
-                } else {
-                    group = item.getParent();
-                }
+    @DataBoundSetter
+    public void setJobPattern(String jobPattern) {
+        this.jobPattern = Util.fixEmptyAndTrim(jobPattern);
+    }
+
+    public String getBranchPattern() {
+        return branchPattern;
+    }
+
+    @DataBoundSetter
+    public void setBranchPattern(String branchPattern) {
+        this.branchPattern = Util.fixEmptyAndTrim(branchPattern);
+    }
+
+    public String getHeadCategory() {
+        return headCategory;
+    }
+
+    @DataBoundSetter
+    public void setHeadCategory(String headCategory) {
+        this.headCategory = Util.fixEmptyAndTrim(headCategory);
+    }
+
+    public String getActiveFrom() {
+        return activeFrom;
+    }
+
+    @DataBoundSetter
+    public void setActiveFrom(String activeFrom) {
+        this.activeFrom = Util.fixEmptyAndTrim(activeFrom);
+    }
+
+    public String getActiveUntil() {
+        return activeUntil;
+    }
+
+    @DataBoundSetter
+    public void setActiveUntil(String activeUntil) {
+        this.activeUntil = Util.fixEmptyAndTrim(activeUntil);
+    }
+
+    /**
+     * Returns whether the override applies at a given instant. An unparseable bound disables the override.
+     *
+     * @param now the instant, in milliseconds since the epoch
+     * @return true if the instant is between the bounds
+     */
+    public boolean isActive(long now) {
+        Long from = parseTime(activeFrom);
+        Long until = parseTime(activeUntil);
+        if ((activeFrom != null && from == null) || (activeUntil != null && until == null)) {
+            return false;
+        }
+        return (from == null || now >= from) && (until == null || now < until);
+    }
+
+    /**
+     * Returns the next instant the override is activated or expires
+     *
+     * @param now the instant, in milliseconds since the epoch
+     * @return the next bound after now, or Long.MAX_VALUE if none
+     */
+    long getNextChange(long now) {
+        long next = Long.MAX_VALUE;
+        for (String bound : new String[] {activeFrom, activeUntil}) {
+            Long time = parseTime(bound);
+            if (time != null && time > now) {
+                next = Math.min(next, time);
             }
-            return group;
         }
+        return next;
+    }
+
+    /**
+     * Parses an ISO-8601 date-time, with an offset or in the controller time zone, or a date at midnight
+     *
+     * @param value the date-time
+     * @return the instant in milliseconds since the epoch, or null if the value is null or unparseable
+     */
+    @CheckForNull
+    static Long parseTime(@CheckForNull String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return OffsetDateTime.parse(value).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            // without offset
+        }
+        try {
+            return LocalDateTime.parse(value)
+                    .atZone(ZoneId.systemDefault())
+                    .toInstant()
+                    .toEpochMilli();
+        } catch (DateTimeParseException e) {
+            // without time
+        }
+        try {
+            return LocalDate.parse(value)
+                    .atStartOfDay(ZoneId.systemDefault())
+                    .toInstant()
+                    .toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns whether the override only applies to some jobs of the folder
+     *
+     * @return true if a match rule is set
+     */
+    public boolean isScoped() {
+        return jobPattern != null || branchPattern != null || headCategory != null;
+    }
+
+    /**
+     * Returns whether the override only applies for some time
+     *
+     * @return true if a bound is set
+     */
+    public boolean isTimeBoxed() {
+        return activeFrom != null || activeUntil != null;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<LibraryCustomConfiguration> {
 
         @POST
         public FormValidation doCheckVersion(
                 @AncestorInPath Item item, @QueryParameter String version, @QueryParameter String name) {
+            if (item == null) {
+                Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+            } else {
+                item.checkPermission(Item.CONFIGURE);
+            }
+
             if (version.isEmpty()) {
                 return FormValidation.ok();
             } else {
+                ResolutionContext context = ResolutionContext.of(item);
+                if (context.getLibrary(name) != null) {
+                    FormValidation validation = context.validateVersion(name, version);
+                    if (validation == null) {
+                        return FormValidation.ok(Messages.LibraryCustomConfiguration_Validation_Pending());
+                    }
+                    return validation;
+                }
+                // not saved yet, look for it in the submitted configuration
                 for (LibraryResolver resolver : ExtensionList.lookup(LibraryResolver.class)) {
                     for (LibraryConfiguration config : resolver.fromConfiguration(Stapler.getCurrentRequest())) {
                         if (config.getName().equals(name)) {
-                            return config.getRetriever().validateVersion(name, version, item);
+                            FormValidation validation =
+                                    VersionValidationCache.get().validate(name, version, config.getRetriever(), item);
+                            if (validation == null) {
+                                return FormValidation.ok(Messages.LibraryCustomConfiguration_Validation_Pending());
+                            }
+                            return validation;
                         }
                     }
                 }
@@ -78,8 +269,42 @@ public class LibraryCustomConfiguration extends AbstractDescribableImpl<LibraryC
             }
         }
 
+        public FormValidation doCheckActiveFrom(@QueryParameter String value) {
+            return checkTime(value);
+        }
+
+        public FormValidation doCheckActiveUntil(@QueryParameter String value) {
+            return checkTime(value);
+        }
+
+        private static FormValidation checkTime(String value) {
+            String time = Util.fixEmptyAndTrim(value);
+            if (time != null && parseTime(time) == null) {
+                return FormValidation.error(Messages.LibraryCustomConfiguration_Validation_InvalidTime());
+            }
+            return FormValidation.ok();
+        }
+
+        public ListBoxModel doFillHeadCategoryItems() {
+            ListBoxModel items = new ListBoxModel();
+            items.add(Messages.LibraryCustomConfiguration_AnyHeadCategory(), "");
+            for (HeadCategory category : HeadCategory.values()) {
+                items.add(category.name());
+            }
+            return items;
+        }
+
+        /**
+         * Lists the libraries allowing version override, and the saved library of the row even if it does not,
+         * so that saving the form again does not silently switch to another library
+         */
         @POST
-        public ListBoxModel doFillNameItems(@AncestorInPath Item item) {
+        public ListBoxModel doFillNameItems(
+                @AncestorInPath Item item,
+                @QueryParameter String savedName,
+                @QueryParameter String filter,
+                @QueryParameter int start,
+                @QueryParameter int limit) {
             if (item == null) {
                 Jenkins.get().checkPermission(Jenkins.ADMINISTER);
                 LOGGER.log(Level.FINE, "DescriptorImpl.doFillNameItems for item null\n");
@@ -88,15 +313,29 @@ public class LibraryCustomConfiguration extends AbstractDescribableImpl<LibraryC
                 LOGGER.log(Level.FINE, "DescriptorImpl.doFillNameItems for item {0}\n", item.getName());
             }
 
-            Set<String> libNames = new TreeSet<>();
-            ItemGroup<?> group = getItemGroupFromItem(item);
-            Collection<LibraryConfiguration> libs = FolderConfigurations.getAllLibrariesForGroup(group);
-            for (LibraryConfiguration lib : libs) {
-                libNames.add(lib.getName());
+            // sorted names of the libraries allowing version override
+            List<String> libNames =
+                    OverrideIndex.get().getOverridableNames(ResolutionContext.getItemGroupFromItem(item));
+            String prefix = Util.fixNull(filter);
+            int from = Collections.binarySearch(libNames, prefix);
+            if (from < 0) {
+                from = -from - 1;
             }
+            from += Math.max(start, 0);
 
             ListBoxModel items = new ListBoxModel();
-            for (String libName : libNames) {
+            if (Util.fixEmpty(savedName) != null
+                    && start <= 0
+                    && savedName.startsWith(prefix)
+                    && Collections.binarySearch(libNames, savedName) < 0) {
+                items.add(new ListBoxModel.Option(
+                        Messages.LibraryCustomConfiguration_NotOverridableName(savedName), savedName, true));
+            }
+            for (int i = from; i < libNames.size() && (limit <= 0 || items.size() < limit); i++) {
+                String libName = libNames.get(i);
+                if (!libName.startsWith(prefix)) {
+                    break;
+                }
                 items.add(new ListBoxModel.Option(libName));
             }
             return items;
@@ -115,15 +354,11 @@ public class LibraryCustomConfiguration extends AbstractDescribableImpl<LibraryC
 
             List<FormValidation> validations = new ArrayList<>();
             // Check name existence and version override allowance
-            ItemGroup<?> group = getItemGroupFromItem(item);
-            Collection<LibraryConfiguration> libs = FolderConfigurations.getAllLibrariesForGroup(group);
-            LibraryConfiguration lib = libs.stream()
-                    .filter(l -> l.getName().equals(name))
-                    .findFirst()
-                    .orElse(null);
+            ResolutionContext context = ResolutionContext.of(item);
+            LibraryConfiguration lib = context.getLibrary(name);
             if (lib == null) {
                 validations.add(FormValidation.error(Messages.LibraryCustomConfiguration_Validation_NameUnknown()));
-            } else if (!lib.isAllowVersionOverride()) {
+            } else if (!context.isOverridable(name)) {
                 validations.add(
                         FormValidation.error(Messages.LibraryCustomConfiguration_Validation_ImmutableVersion()));
             }
@@ -131,9 +366,12 @@ public class LibraryCustomConfiguration extends AbstractDescribableImpl<LibraryC
                 validations.add(FormValidation.error(Messages.LibraryCustomConfiguration_Validation_EmptyVersion()));
             }
             // check version existence
-            if (lib != null) {
-                FormValidation versionValidation = lib.getRetriever().validateVersion(name, version, item);
-                if (versionValidation.kind != FormValidation.Kind.OK) {
+            if (lib != null && !version.isEmpty()) {
+                FormValidation versionValidation = context.validateVersion(name, version);
+                if (versionValidation == null) {
+                    validations.add(
+                            FormValidation.warning(Messages.LibraryCustomConfiguration_Validation_Pending()));
+                } else if (versionValidation.kind != FormValidation.Kind.OK) {
                     validations.add(
                             FormValidation.error(Messages.LibraryCustomConfiguration_Validation_UnknownVersion()));
                 }
@@ -144,5 +382,61 @@ public class LibraryCustomConfiguration extends AbstractDescribableImpl<LibraryC
             }
             return FormValidation.aggregate(validations);
         }
+
+        /**
+         * Validates several overrides at once, for scripts and API clients: the configuration page validates each row
+         * @param item the context
+         * @param overrides a JSON array of objects with name and version
+         * @return a JSON array of objects with name, version, kind and message, kind being PENDING if not yet known,
+         *     or an error if the overrides are not such an array
+         */
+        @POST
+        public HttpResponse doValidateAll(
+                @AncestorInPath Item item, @QueryParameter("overrides") final String overrides) {
+            if (item == null) {
+                Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+            } else {
+                item.checkPermission(Item.CONFIGURE);
+            }
+
+            List<LibraryCustomConfiguration> items = new ArrayList<>();
+            try {
+                for (Object o : JSONArray.fromObject(Util.fixNull(overrides))) {
+                    if (!(o instanceof JSONObject)) {
+                        return FormValidation.error(Messages.LibraryCustomConfiguration_Validation_InvalidOverrides());
+                    }
+                    JSONObject json = (JSONObject) o;
+                    items.add(new LibraryCustomConfiguration(json.optString("name"), json.optString("version")));
+                }
+            } catch (JSONException e) {
+                return FormValidation.error(Messages.LibraryCustomConfiguration_Validation_InvalidOverrides());
+            }
+            Map<String, CompletableFuture<FormValidation>> validations = VersionValidationCache.get()
+                    .validateAllAsync(items, ResolutionContext.of(item).getLibraries(), item);
+
+            long deadline = System.currentTimeMillis() + BULK_WAIT;
+            JSONArray results = new JSONArray();
+            for (LibraryCustomConfiguration override : items) {
+                JSONObject result = new JSONObject();
+                result.put("name", override.getName());
+                result.put("version", override.getVersion());
+                try {
+                    FormValidation validation = validations
+                            .get(override.getName() + "@" + override.getVersion())
+                            .get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                    result.put("kind", validation.kind.name());
+                    result.put("message", validation.getMessage());
+                } catch (TimeoutException | ExecutionException e) {
+                    result.put("kind", "PENDING");
+                    result.put("message", Messages.LibraryCustomConfiguration_Validation_Pending());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    result.put("kind", "PENDING");
+                    result.put("message", Messages.LibraryCustomConfiguration_Validation_Pending());
+                }
+                results.add(result);
+            }
+            return HttpResponses.okJSON(results);
+        }
     }
 }
@@ -0,0 +1,112 @@
+package io.jenkins.plugins.shared_library_version_override;
+
+import com.cloudbees.hudson.plugins.folder.AbstractFolder;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.RootAction;
+import hudson.util.HttpResponses;
+import java.util.List;
+import java.util.Locale;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.verb.GET;
+import org.kohsuke.stapler.verb.POST;
+
+/**
+ * Entry point of the plugin HTTP API
+ *
+ * @author Cyril Pottiers
+ */
+@Extension
+public class LibraryOverrideAction implements RootAction {
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Shared Library Version Override";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "shared-library-version-override";
+    }
+
+    /**
+     * Returns the resolution metrics
+     *
+     * @return the metrics as JSON
+     */
+    @GET
+    public HttpResponse doMetrics() {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        return HttpResponses.okJSON(OverrideMetrics.get().toJSON());
+    }
+
+    /**
+     * Returns the latest overridden versions received by the builds
+     *
+     * @param folder a folder full name, empty for all
+     * @param library a library name, empty for all
+     * @param limit the maximum number of records, 100 by default
+     * @return the records as JSON, the latest first
+     */
+    @GET
+    public HttpResponse doAudit(
+            @QueryParameter String folder, @QueryParameter String library, @QueryParameter int limit) {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        ResolutionAuditLog log = ResolutionAuditLog.get();
+        int max = limit <= 0 ? 100 : Math.min(limit, 1000);
+        JSONArray records = new JSONArray();
+        for (ResolutionAuditLog.Record record :
+                log.query(Util.fixEmptyAndTrim(folder), Util.fixEmptyAndTrim(library), max)) {
+            records.add(record.toJSON());
+        }
+        return HttpResponses.okJSON(records);
+    }
+
+    /**
+     * Applies or removes a library override on many folders, each folder requiring the configure permission
+     *
+     * @param operation apply or remove
+     * @param library the library name
+     * @param version the version, required to apply
+     * @param folder the full name of the subtree root, empty for the whole instance
+     * @param pattern a glob on the folder full names, empty for all
+     * @return the result for each folder as JSON
+     */
+    @POST
+    public HttpResponse doBatch(
+            @QueryParameter String operation,
+            @QueryParameter String library,
+            @QueryParameter String version,
+            @QueryParameter String folder,
+            @QueryParameter String pattern) {
+        Jenkins.get().checkPermission(Jenkins.READ);
+        BatchOverrides.Operation op;
+        try {
+            op = BatchOverrides.Operation.valueOf(Util.fixNull(operation).toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return HttpResponses.errorJSON("Unknown operation " + operation);
+        }
+        AbstractFolder<?> root = null;
+        if (Util.fixEmptyAndTrim(folder) != null) {
+            root = Jenkins.get().getItemByFullName(folder.trim(), AbstractFolder.class);
+            if (root == null) {
+                return HttpResponses.errorJSON("Unknown folder " + folder);
+            }
+        }
+        try {
+            List<BatchOverrides.FolderResult> results =
+                    BatchOverrides.execute(op, Util.fixNull(library), version, root, Util.fixEmptyAndTrim(pattern));
+            return HttpResponses.okJSON(BatchOverrides.toJSON(results));
+        } catch (IllegalArgumentException e) {
+            return HttpResponses.errorJSON(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,849 @@
+package io.jenkins.plugins.shared_library_version_override;
+
+import com.cloudbees.hudson.plugins.folder.AbstractFolder;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.XmlFile;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Job;
+import hudson.model.Saveable;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.SaveableListener;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jenkinsci.plugins.workflow.libs.FolderLibraries;
+import org.jenkinsci.plugins.workflow.libs.GlobalLibraries;
+import org.jenkinsci.plugins.workflow.libs.GlobalUntrustedLibraries;
+import org.jenkinsci.plugins.workflow.libs.LibraryConfiguration;
+import org.jenkinsci.plugins.workflow.libs.LibraryRetriever;
+
+/**
+ * Resolved overrides indexed by folder full name.
+ * Entries are built on first use and dropped when a folder, its ancestors or the global libraries change.
+ *
+ * @author Cyril Pottiers
+ */
+@Extension
+public class OverrideIndex {
+    private static final Logger LOGGER = Logger.getLogger(OverrideIndex.class.getName());
+
+    private final ConcurrentMap<String, Effective> effective = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Resolution> resolutions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Catalogue> catalogues = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, List<String>> names = new ConcurrentHashMap<>();
+
+    /**
+     * Global libraries, replaced as a whole when they are saved
+     */
+    private final AtomicReference<GlobalSnapshot> global = new AtomicReference<>();
+
+    private final Object publishLock = new Object();
+
+    /**
+     * Incremented when all entries are dropped, so that an entry computed concurrently with a change is not kept
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Incremented when the entries of a folder and of its descendants are dropped, by folder full name.
+     * Removed when the folder is deleted or moved.
+     */
+    private final ConcurrentMap<String, AtomicLong> folderGenerations = new ConcurrentHashMap<>();
+
+    /**
+     * Incremented when the refs of a library change, so that an override resolved from the previous refs is not kept
+     */
+    private final AtomicLong refsGeneration = new AtomicLong();
+
+    /**
+     * Returns the index of the current Jenkins instance
+     *
+     * @return the index
+     */
+    public static OverrideIndex get() {
+        return ExtensionList.lookupSingleton(OverrideIndex.class);
+    }
+
+    /**
+     * Returns the overridden trusted LibraryConfigurations applying to a group
+     *
+     * @param group the context
+     * @return the overridden trusted LibraryConfigurations
+     */
+    @NonNull
+    public List<LibraryConfiguration> getTrustedOverrides(@CheckForNull ItemGroup<?> group) {
+        return getOverrides(group, true).all;
+    }
+
+    /**
+     * Returns the overridden trusted LibraryConfigurations a build of a job needs.
+     * The scoped overrides matching the job take precedence over the other overrides.
+     *
+     * @param job the job
+     * @param libraryVersions the libraries requested by the build, with their version if specified
+     * @return the overridden trusted LibraryConfigurations which are implicit or requested without version
+     */
+    @NonNull
+    public List<LibraryConfiguration> getTrustedOverrides(
+            @NonNull Job<?, ?> job, @NonNull Map<String, String> libraryVersions) {
+        return getOverrides(job, true).select(libraryVersions);
+    }
+
+    /**
+     * Returns the overridden untrusted LibraryConfigurations applying to a group
+     *
+     * @param group the context
+     * @return the overridden untrusted LibraryConfigurations
+     */
+    @NonNull
+    public List<LibraryConfiguration> getUntrustedOverrides(@CheckForNull ItemGroup<?> group) {
+        return getOverrides(group, false).all;
+    }
+
+    /**
+     * Returns the overridden untrusted LibraryConfigurations a build of a job needs.
+     * The scoped overrides matching the job take precedence over the other overrides.
+     *
+     * @param job the job
+     * @param libraryVersions the libraries requested by the build, with their version if specified
+     * @return the overridden untrusted LibraryConfigurations which are implicit or requested without version
+     */
+    @NonNull
+    public List<LibraryConfiguration> getUntrustedOverrides(
+            @NonNull Job<?, ?> job, @NonNull Map<String, String> libraryVersions) {
+        return getOverrides(job, false).select(libraryVersions);
+    }
+
+    /**
+     * Returns the override configurations applying to a group, one per library.
+     * The overrides of a folder shadow the ones of its ancestors, which are inherited from the cached parent view.
+     * Together, they shadow the {@link GlobalOverrides} of the folder path.
+     *
+     * @param group the context
+     * @return the override configurations, nearest folder first
+     */
+    @NonNull
+    public List<LibraryCustomConfiguration> getEffectiveOverrides(@CheckForNull ItemGroup<?> group) {
+        return getEffective(group).items;
+    }
+
+    private Effective getEffective(@CheckForNull ItemGroup<?> group) {
+        int[] walked = new int[1];
+        Effective view = getEffective(group, walked);
+        if (walked[0] > 0) {
+            ResolutionListener.fireFoldersWalked(walked[0]);
+        }
+        if (!(group instanceof AbstractFolder)) {
+            return view;
+        }
+        return view.over(GlobalOverrides.get().getPolicy(group.getFullName()));
+    }
+
+    private Effective getEffective(@CheckForNull ItemGroup<?> group, int[] walked) {
+        if (!(group instanceof AbstractFolder)) {
+            return Effective.EMPTY;
+        }
+        String key = group.getFullName();
+        Effective view = effective.get(key);
+        ResolutionListener.fireCacheLookup("effective", view != null);
+        if (view == null) {
+            long stamp = stamp(key);
+            AbstractFolder<?> f = (AbstractFolder<?>) group;
+            walked[0]++;
+            Effective inherited = getEffective(f.getParent(), walked);
+            FolderConfigurations prop = f.getProperties().get(FolderConfigurations.class);
+            boolean empty = prop == null
+                    || prop.getEffectiveOverrides().isEmpty() && prop.getScopedOverrides().isEmpty();
+            view = empty ? inherited : inherited.child(key, prop.getEffectiveOverrides(), prop.getScopedOverrides());
+            cache(effective, key, view, stamp);
+        }
+        return view;
+    }
+
+    private Overrides getOverrides(@CheckForNull ItemGroup<?> group, boolean isTrusted) {
+        Resolution resolution = getResolution(group);
+        return isTrusted ? resolution.trusted : resolution.untrusted;
+    }
+
+    private Overrides getOverrides(Job<?, ?> job, boolean isTrusted) {
+        Resolution resolution = getResolution(job.getParent());
+        Overrides overrides = isTrusted ? resolution.trusted : resolution.untrusted;
+        List<ScopeMatcher.Rule> rules = resolution.scopes.match(job);
+        if (rules.isEmpty()) {
+            return overrides;
+        }
+        // matching scoped overrides first, the nearest folder first, then the other overrides
+        Map<String, LibraryConfiguration> merged = new LinkedHashMap<>();
+        for (ScopeMatcher.Rule rule : rules) {
+            LibraryConfiguration lib = isTrusted ? rule.trusted : rule.untrusted;
+            if (lib != null) {
+                merged.putIfAbsent(lib.getName(), lib);
+            }
+        }
+        if (merged.isEmpty()) {
+            return overrides;
+        }
+        for (LibraryConfiguration lib : overrides.all) {
+            merged.putIfAbsent(lib.getName(), lib);
+        }
+        return new Overrides(merged.values());
+    }
+
+    /**
+     * Returns the trusted and untrusted overrides of a group, resolved together by a single traversal
+     */
+    private Resolution getResolution(@CheckForNull ItemGroup<?> group) {
+        if (!(group instanceof AbstractFolder)) {
+            return Resolution.EMPTY;
+        }
+        String key = group.getFullName();
+        Resolution resolution = resolutions.get(key);
+        ResolutionListener.fireCacheLookup("resolution", resolution != null);
+        if (resolution == null) {
+            resolution = computeResolution(group, key);
+        }
+        return resolution;
+    }
+
+    /**
+     * Computes the overrides of a folder, in memory only: concurrent computations are cheaper than waiting
+     */
+    private Resolution computeResolution(ItemGroup<?> group, String key) {
+        long stamp = stamp(key);
+        long refsStamp = refsGeneration.get();
+        Effective view = getEffective(group);
+        Map<String, LibraryConfiguration> trusted = getTrustedLibrariesByName();
+        Map<String, LibraryConfiguration> untrusted = getUntrustedLibrariesByName(group);
+        // the refs of the version patterns are listed with the credentials of the folder
+        Item context = (AbstractFolder<?>) group;
+        List<LibraryConfiguration> trustedLibraries =
+                FolderConfigurations.getLibraryConfigurations(view.items, trusted, context);
+        List<LibraryConfiguration> untrustedLibraries =
+                FolderConfigurations.getLibraryConfigurations(view.items, untrusted, context);
+        for (LibraryCustomConfiguration item : view.items) {
+            fireIfUnknown(item, trusted, untrusted);
+        }
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE, "OverrideIndex resolved {0}: trusted {1}, untrusted {2}\n", new Object[] {
+                key,
+                FolderConfigurations.getNames(trustedLibraries),
+                FolderConfigurations.getNames(untrustedLibraries)
+            });
+        }
+        Resolution resolution = new Resolution(
+                new Overrides(trustedLibraries),
+                new Overrides(untrustedLibraries),
+                view.sources,
+                compileScopes(view, trusted, untrusted, context),
+                getPatternRetrievers(view, trusted, untrusted));
+        if (resolution.patternRetrievers.isEmpty() || refsStamp == refsGeneration.get()) {
+            cache(resolutions, key, resolution, stamp);
+            // the refs may change between the check and the put
+            if (!resolution.patternRetrievers.isEmpty() && refsStamp != refsGeneration.get()) {
+                resolutions.remove(key, resolution);
+            }
+        }
+        return resolution;
+    }
+
+    /**
+     * Returns the retrievers which refs resolve the version patterns of a folder
+     */
+    private static Set<LibraryRetriever> getPatternRetrievers(
+            Effective view, Map<String, LibraryConfiguration> trusted, Map<String, LibraryConfiguration> untrusted) {
+        Set<LibraryRetriever> retrievers = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<LibraryCustomConfiguration> items = new ArrayList<>(view.items);
+        for (Map.Entry<String, LibraryCustomConfiguration> entry : view.scoped) {
+            items.add(entry.getValue());
+        }
+        for (LibraryCustomConfiguration item : items) {
+            if (VersionPattern.isPattern(item.getVersion())) {
+                for (Map<String, LibraryConfiguration> libs : Arrays.asList(trusted, untrusted)) {
+                    LibraryConfiguration lib = libs.get(item.getName());
+                    if (lib != null) {
+                        retrievers.add(lib.getRetriever());
+                    }
+                }
+            }
+        }
+        return retrievers.isEmpty() ? Collections.emptySet() : retrievers;
+    }
+
+    /**
+     * Reports an override of a library unknown in both catalogues, once
+     */
+    private static void fireIfUnknown(
+            LibraryCustomConfiguration item,
+            Map<String, LibraryConfiguration> trusted,
+            Map<String, LibraryConfiguration> untrusted) {
+        if (!trusted.containsKey(item.getName()) && !untrusted.containsKey(item.getName())) {
+            ResolutionListener.fireOverrideSkipped(item.getName(), ResolutionListener.SkipReason.UNKNOWN_LIBRARY);
+        }
+    }
+
+    private static ScopeMatcher compileScopes(
+            Effective view,
+            Map<String, LibraryConfiguration> trusted,
+            Map<String, LibraryConfiguration> untrusted,
+            Item context) {
+        if (view.scoped.isEmpty()) {
+            return ScopeMatcher.EMPTY;
+        }
+        List<ScopeMatcher.Rule> rules = new ArrayList<>(view.scoped.size());
+        for (Map.Entry<String, LibraryCustomConfiguration> entry : view.scoped) {
+            LibraryCustomConfiguration item = entry.getValue();
+            LibraryConfiguration trustedLib = trusted.containsKey(item.getName())
+                    ? FolderConfigurations.getLibraryConfiguration(item, trusted, context)
+                    : null;
+            LibraryConfiguration untrustedLib = untrusted.containsKey(item.getName())
+                    ? FolderConfigurations.getLibraryConfiguration(item, untrusted, context)
+                    : null;
+            fireIfUnknown(item, trusted, untrusted);
+            if (trustedLib != null || untrustedLib != null) {
+                rules.add(new ScopeMatcher.Rule(rules.size(), entry.getKey(), item, trustedLib, untrustedLib));
+            }
+        }
+        return new ScopeMatcher(rules);
+    }
+
+    /**
+     * Returns the folder defining the override of a library applying to a group
+     *
+     * @param group the context
+     * @param name the library name
+     * @return the folder full name, or null if the library is not overridden
+     */
+    @CheckForNull
+    public String getOverrideSource(@CheckForNull ItemGroup<?> group, @NonNull String name) {
+        return getResolution(group).sources.get(name);
+    }
+
+    /**
+     * Returns the folders defining the overrides applying to a job, scoped overrides included
+     *
+     * @param job the job
+     * @return the folder full names by library name
+     */
+    @NonNull
+    public Map<String, String> getOverrideSources(@NonNull Job<?, ?> job) {
+        Resolution resolution = getResolution(job.getParent());
+        List<ScopeMatcher.Rule> rules = resolution.scopes.match(job);
+        if (rules.isEmpty()) {
+            return Collections.unmodifiableMap(resolution.sources);
+        }
+        // the nearest matching scoped override wins, as in getOverrides
+        Map<String, String> sources = new HashMap<>();
+        for (ScopeMatcher.Rule rule : rules) {
+            sources.putIfAbsent(rule.getName(), rule.getFolder());
+        }
+        for (Map.Entry<String, String> entry : resolution.sources.entrySet()) {
+            sources.putIfAbsent(entry.getKey(), entry.getValue());
+        }
+        return sources;
+    }
+
+    /**
+     * Returns the sorted names of the libraries allowing version override in a group
+     *
+     * @param group the context
+     * @return the sorted names of the libraries allowing version override
+     */
+    @NonNull
+    public List<String> getOverridableNames(@CheckForNull ItemGroup<?> group) {
+        String key = group == null ? "" : group.getFullName();
+        List<String> libNames = names.get(key);
+        ResolutionListener.fireCacheLookup("names", libNames != null);
+        if (libNames == null) {
+            long stamp = stamp(key);
+            Set<String> sorted = new TreeSet<>();
+            for (LibraryConfiguration lib : FolderConfigurations.getAllLibrariesForGroup(group)) {
+                if (lib.isAllowVersionOverride()) {
+                    sorted.add(lib.getName());
+                }
+            }
+            libNames = Collections.unmodifiableList(new ArrayList<>(sorted));
+            cache(names, key, libNames, stamp);
+        }
+        return libNames;
+    }
+
+    /**
+     * Returns the untrusted LibraryConfigurations known for a group: the global untrusted libraries,
+     * then the libraries of each folder from the group up to the root.
+     *
+     * @param group the context
+     * @return the known untrusted LibraryConfigurations
+     */
+    @NonNull
+    public List<LibraryConfiguration> getUntrustedLibraries(@CheckForNull ItemGroup<?> group) {
+        return getCatalogue(group).all;
+    }
+
+    /**
+     * Returns the trusted global LibraryConfigurations
+     *
+     * @return the trusted global LibraryConfigurations
+     */
+    @NonNull
+    public List<LibraryConfiguration> getTrustedLibraries() {
+        return getGlobal().trusted;
+    }
+
+    /**
+     * Returns the trusted global LibraryConfigurations by name
+     *
+     * @return the trusted global LibraryConfigurations by name
+     */
+    @NonNull
+    public Map<String, LibraryConfiguration> getTrustedLibrariesByName() {
+        return getGlobal().trustedByName;
+    }
+
+    /**
+     * Returns the version of the global libraries snapshot, incremented each time they are saved
+     *
+     * @return the snapshot version
+     */
+    public long getGlobalLibrariesVersion() {
+        return getGlobal().version;
+    }
+
+    private GlobalSnapshot getGlobal() {
+        GlobalSnapshot snapshot = global.get();
+        return snapshot != null ? snapshot : publishGlobal(false);
+    }
+
+    /**
+     * Builds a snapshot of the global libraries and publishes it, readers keep using the previous one meanwhile
+     *
+     * @param force whether an existing snapshot is replaced
+     * @return the published snapshot
+     */
+    private GlobalSnapshot publishGlobal(boolean force) {
+        synchronized (publishLock) {
+            GlobalSnapshot current = global.get();
+            if (current != null && !force) {
+                return current;
+            }
+            GlobalSnapshot snapshot = new GlobalSnapshot(
+                    current == null ? 1 : current.version + 1,
+                    GlobalLibraries.get().getLibraries(),
+                    GlobalUntrustedLibraries.get().getLibraries());
+            global.set(snapshot);
+            return snapshot;
+        }
+    }
+
+    /**
+     * Publishes a new snapshot of the global libraries, then drops all entries resolved from the previous one
+     */
+    public void refreshGlobalLibraries() {
+        publishGlobal(true);
+        invalidateAll();
+    }
+
+    /**
+     * Returns the untrusted LibraryConfigurations known for a group by name.
+     * A library defined in a folder shadows the ones with the same name defined in its ancestors or globally.
+     *
+     * @param group the context
+     * @return the known untrusted LibraryConfigurations by name
+     */
+    @NonNull
+    public Map<String, LibraryConfiguration> getUntrustedLibrariesByName(@CheckForNull ItemGroup<?> group) {
+        return getCatalogue(group).byName;
+    }
+
+    private Catalogue getCatalogue(@CheckForNull ItemGroup<?> group) {
+        if (!(group instanceof AbstractFolder)) {
+            return getGlobal().untrusted;
+        }
+        String key = group.getFullName();
+        long stamp = stamp(key);
+        Catalogue catalogue = catalogues.get(key);
+        ResolutionListener.fireCacheLookup("catalogue", catalogue != null);
+        if (catalogue == null) {
+            // a folder catalogue extends the one of its parent, which is cached as well
+            AbstractFolder<?> f = (AbstractFolder<?>) group;
+            FolderLibraries prop = f.getProperties().get(FolderLibraries.class);
+            Catalogue parent = getCatalogue(f.getParent());
+            catalogue = prop == null ? parent : parent.child(prop.getLibraries());
+            cache(catalogues, key, catalogue, stamp);
+        }
+        return catalogue;
+    }
+
+    /**
+     * Returns the stamp of the invalidations dropping the entry of a folder: the ones of all entries,
+     * of the folder and of its ancestors. The invalidations of other folders don't change it.
+     */
+    private long stamp(String key) {
+        long stamp = generation.get();
+        for (String k = key; ; k = k.substring(0, k.lastIndexOf('/'))) {
+            AtomicLong folderGeneration = folderGenerations.get(k);
+            if (folderGeneration != null) {
+                stamp += folderGeneration.get();
+            }
+            if (k.indexOf('/') < 0) {
+                return stamp;
+            }
+        }
+    }
+
+    /**
+     * Keeps an entry unless an invalidation ran since its computation started
+     */
+    private <V> void cache(ConcurrentMap<String, V> map, String key, V value, long stamp) {
+        if (stamp == stamp(key)) {
+            map.putIfAbsent(key, value);
+            // an invalidation may run between the check and the put
+            if (stamp != stamp(key)) {
+                map.remove(key, value);
+            }
+        }
+    }
+
+    /**
+     * Drops the entries of a folder and of all its descendants
+     *
+     * @param fullName the folder full name
+     */
+    public void invalidate(@NonNull String fullName) {
+        folderGenerations.computeIfAbsent(fullName, k -> new AtomicLong()).incrementAndGet();
+        String prefix = fullName + "/";
+        effective.keySet().removeIf(k -> k.equals(fullName) || k.startsWith(prefix));
+        resolutions.keySet().removeIf(k -> k.equals(fullName) || k.startsWith(prefix));
+        catalogues.keySet().removeIf(k -> k.equals(fullName) || k.startsWith(prefix));
+        names.keySet().removeIf(k -> k.equals(fullName) || k.startsWith(prefix));
+        LOGGER.log(Level.FINER, "OverrideIndex invalidated {0}\n", fullName);
+    }
+
+    /**
+     * Drops the entries of a folder which no longer exists at its full name and of all its descendants,
+     * along with their invalidation counters
+     *
+     * @param fullName the folder full name
+     */
+    void remove(@NonNull String fullName) {
+        invalidate(fullName);
+        String prefix = fullName + "/";
+        long removed = 0;
+        for (Iterator<Map.Entry<String, AtomicLong>> it = folderGenerations.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, AtomicLong> entry = it.next();
+            if (entry.getKey().equals(fullName) || entry.getKey().startsWith(prefix)) {
+                removed += entry.getValue().get();
+                it.remove();
+            }
+        }
+        // the stamps must not go back to a value a computation in progress started with
+        generation.addAndGet(removed + 1);
+        LOGGER.log(Level.FINER, "OverrideIndex removed {0}\n", fullName);
+    }
+
+    /**
+     * Drops the overrides resolved from the refs of a library, when they change
+     *
+     * @param retriever the library retriever
+     */
+    public void invalidate(@NonNull LibraryRetriever retriever) {
+        refsGeneration.incrementAndGet();
+        resolutions.values().removeIf(r -> r.patternRetrievers.contains(retriever));
+        LOGGER.log(Level.FINER, "OverrideIndex invalidated the overrides resolved from {0}\n", retriever);
+    }
+
+    /**
+     * Drops all entries
+     */
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        effective.clear();
+        resolutions.clear();
+        catalogues.clear();
+        names.clear();
+        LOGGER.log(Level.FINER, "OverrideIndex invalidated\n");
+    }
+
+    /**
+     * Overridden libraries applying to a folder, nearest folder first
+     */
+    private static final class Overrides {
+        private static final Overrides EMPTY = new Overrides(Collections.emptyList());
+
+        private final List<LibraryConfiguration> all;
+        private final List<LibraryConfiguration> implicit;
+        private final Map<String, LibraryConfiguration> byName;
+
+        Overrides(Collection<LibraryConfiguration> libraries) {
+            this.all = Collections.unmodifiableList(new ArrayList<>(libraries));
+            this.byName = FolderConfigurations.indexByName(libraries);
+            List<LibraryConfiguration> implicitLibraries = new ArrayList<>();
+            for (LibraryConfiguration lib : all) {
+                if (lib.isImplicit() && byName.get(lib.getName()) == lib) {
+                    implicitLibraries.add(lib);
+                }
+            }
+            this.implicit = Collections.unmodifiableList(implicitLibraries);
+        }
+
+        /**
+         * Only implicit libraries and libraries requested without version are loaded with their default version
+         */
+        List<LibraryConfiguration> select(Map<String, String> libraryVersions) {
+            if (libraryVersions.isEmpty()) {
+                return implicit;
+            }
+            List<LibraryConfiguration> selected = new ArrayList<>();
+            for (LibraryConfiguration lib : implicit) {
+                if (libraryVersions.get(lib.getName()) == null) {
+                    selected.add(lib);
+                }
+            }
+            for (Map.Entry<String, String> entry : libraryVersions.entrySet()) {
+                if (entry.getValue() == null) {
+                    LibraryConfiguration lib = byName.get(entry.getKey());
+                    if (lib != null && !lib.isImplicit()) {
+                        selected.add(lib);
+                    }
+                }
+            }
+            return selected;
+        }
+    }
+
+    /**
+     * Override configurations applying to a folder, with the folder defining each of them
+     */
+    static final class Effective {
+        static final Effective EMPTY =
+                new Effective(Collections.emptyList(), Collections.emptyMap(), Collections.emptyList());
+
+        private final List<LibraryCustomConfiguration> items;
+        private final Map<String, String> sources;
+
+        /**
+         * Scoped overrides with the folder defining them, nearest folder first
+         */
+        private final List<Map.Entry<String, LibraryCustomConfiguration>> scoped;
+
+        Effective(
+                List<LibraryCustomConfiguration> items,
+                Map<String, String> sources,
+                List<Map.Entry<String, LibraryCustomConfiguration>> scoped) {
+            this.items = items;
+            this.sources = sources;
+            this.scoped = scoped;
+        }
+
+        /**
+         * The overrides of a folder shadow the inherited ones
+         */
+        Effective child(
+                String folder, List<LibraryCustomConfiguration> own, List<LibraryCustomConfiguration> ownScoped) {
+            Map<String, LibraryCustomConfiguration> merged = new LinkedHashMap<>();
+            Map<String, String> childSources = new HashMap<>(sources);
+            for (LibraryCustomConfiguration item : own) {
+                merged.put(item.getName(), item);
+                childSources.put(item.getName(), folder);
+            }
+            for (LibraryCustomConfiguration item : items) {
+                merged.putIfAbsent(item.getName(), item);
+            }
+            List<Map.Entry<String, LibraryCustomConfiguration>> childScoped = scoped;
+            if (!ownScoped.isEmpty()) {
+                childScoped = new ArrayList<>(ownScoped.size() + scoped.size());
+                for (LibraryCustomConfiguration item : ownScoped) {
+                    childScoped.add(new AbstractMap.SimpleImmutableEntry<>(folder, item));
+                }
+                childScoped.addAll(scoped);
+                childScoped = Collections.unmodifiableList(childScoped);
+            }
+            return new Effective(
+                    Collections.unmodifiableList(new ArrayList<>(merged.values())),
+                    Collections.unmodifiableMap(childSources),
+                    childScoped);
+        }
+
+        /**
+         * The overrides of the folders shadow all the global ones of the same libraries, scoped or not
+         */
+        Effective over(Effective policy) {
+            if (policy.items.isEmpty() && policy.scoped.isEmpty()) {
+                return this;
+            }
+            Set<String> shadowed = new HashSet<>(sources.keySet());
+            for (Map.Entry<String, LibraryCustomConfiguration> entry : scoped) {
+                shadowed.add(entry.getValue().getName());
+            }
+            List<LibraryCustomConfiguration> mergedItems = new ArrayList<>(items);
+            Map<String, String> mergedSources = new HashMap<>(sources);
+            for (LibraryCustomConfiguration item : policy.items) {
+                if (!shadowed.contains(item.getName())) {
+                    mergedItems.add(item);
+                    mergedSources.put(item.getName(), policy.sources.get(item.getName()));
+                }
+            }
+            List<Map.Entry<String, LibraryCustomConfiguration>> mergedScoped = new ArrayList<>(scoped);
+            for (Map.Entry<String, LibraryCustomConfiguration> entry : policy.scoped) {
+                if (!shadowed.contains(entry.getValue().getName())) {
+                    mergedScoped.add(entry);
+                }
+            }
+            return new Effective(
+                    Collections.unmodifiableList(mergedItems),
+                    Collections.unmodifiableMap(mergedSources),
+                    Collections.unmodifiableList(mergedScoped));
+        }
+    }
+
+    /**
+     * Trusted and untrusted overrides applying to a folder
+     */
+    private static final class Resolution {
+        private static final Resolution EMPTY = new Resolution(
+                Overrides.EMPTY, Overrides.EMPTY, Collections.emptyMap(), ScopeMatcher.EMPTY, Collections.emptySet());
+
+        private final Overrides trusted;
+        private final Overrides untrusted;
+
+        /**
+         * Folder defining the override of each library
+         */
+        private final Map<String, String> sources;
+
+        /**
+         * Overrides only applying to some jobs
+         */
+        private final ScopeMatcher scopes;
+
+        /**
+         * Retrievers which refs resolve the version patterns, compared by identity
+         */
+        private final Set<LibraryRetriever> patternRetrievers;
+
+        Resolution(
+                Overrides trusted,
+                Overrides untrusted,
+                Map<String, String> sources,
+                ScopeMatcher scopes,
+                Set<LibraryRetriever> patternRetrievers) {
+            this.trusted = trusted;
+            this.untrusted = untrusted;
+            this.sources = sources;
+            this.scopes = scopes;
+            this.patternRetrievers = patternRetrievers;
+        }
+    }
+
+    /**
+     * Immutable copy of the global libraries
+     */
+    private static final class GlobalSnapshot {
+        private final long version;
+        private final List<LibraryConfiguration> trusted;
+        private final Map<String, LibraryConfiguration> trustedByName;
+        private final Catalogue untrusted;
+
+        GlobalSnapshot(long version, List<LibraryConfiguration> trusted, List<LibraryConfiguration> untrusted) {
+            this.version = version;
+            this.trusted = Collections.unmodifiableList(new ArrayList<>(trusted));
+            this.trustedByName = FolderConfigurations.indexByName(this.trusted);
+            this.untrusted = new Catalogue(new ArrayList<>(untrusted), Collections.emptyList());
+        }
+    }
+
+    /**
+     * Untrusted libraries known at some level of the folder tree
+     */
+    private static final class Catalogue {
+        private final List<LibraryConfiguration> global;
+        private final List<LibraryConfiguration> local;
+        private final List<LibraryConfiguration> all;
+        private final Map<String, LibraryConfiguration> byName;
+
+        Catalogue(List<LibraryConfiguration> global, List<LibraryConfiguration> local) {
+            this.global = global;
+            this.local = local;
+            List<LibraryConfiguration> libraries = new ArrayList<>(global.size() + local.size());
+            libraries.addAll(global);
+            libraries.addAll(local);
+            this.all = Collections.unmodifiableList(libraries);
+            // nearest folder first, then global
+            List<LibraryConfiguration> byPrecedence = new ArrayList<>(libraries.size());
+            byPrecedence.addAll(local);
+            byPrecedence.addAll(global);
+            this.byName = FolderConfigurations.indexByName(byPrecedence);
+        }
+
+        Catalogue child(List<LibraryConfiguration> libraries) {
+            List<LibraryConfiguration> childLocal = new ArrayList<>(libraries.size() + local.size());
+            childLocal.addAll(libraries);
+            childLocal.addAll(local);
+            return new Catalogue(global, childLocal);
+        }
+    }
+
+    /**
+     * Invalidates the index when the folder tree changes
+     */
+    @Extension
+    public static class ItemListenerImpl extends ItemListener {
+        /**
+         * Including after a reload of the configuration from disk
+         */
+        @Override
+        public void onLoaded() {
+            get().refreshGlobalLibraries();
+        }
+
+        @Override
+        public void onUpdated(Item item) {
+            if (item instanceof AbstractFolder) {
+                get().invalidate(item.getFullName());
+            }
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            if (item instanceof AbstractFolder) {
+                get().remove(item.getFullName());
+            }
+        }
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            if (item instanceof AbstractFolder) {
+                get().remove(oldFullName);
+                get().invalidate(newFullName);
+            }
+        }
+    }
+
+    /**
+     * Invalidates the index when a folder is saved, publishes a new snapshot when the global libraries are saved
+     */
+    @Extension
+    public static class SaveableListenerImpl extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof AbstractFolder) {
+                AbstractFolder<?> folder = (AbstractFolder<?>) o;
+                get().invalidate(folder.getFullName());
+                FolderConfigurations prop = folder.getProperties().get(FolderConfigurations.class);
+                if (prop != null) {
+                    prop.listRefs();
+                }
+            } else if (o instanceof GlobalLibraries || o instanceof GlobalUntrustedLibraries) {
+                // including Configuration as Code reloads, which save the global libraries
+                get().refreshGlobalLibraries();
+            }
+        }
+    }
+}
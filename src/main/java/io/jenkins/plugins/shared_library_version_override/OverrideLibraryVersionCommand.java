@@ -0,0 +1,62 @@
+package io.jenkins.plugins.shared_library_version_override;
+
+import com.cloudbees.hudson.plugins.folder.AbstractFolder;
+import hudson.Extension;
+import hudson.cli.CLICommand;
+import java.util.List;
+import jenkins.model.Jenkins;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+
+/**
+ * CLI command applying or removing a library override on many folders
+ *
+ * @author Cyril Pottiers
+ */
+@Extension
+public class OverrideLibraryVersionCommand extends CLICommand {
+
+    @Argument(index = 0, metaVar = "OPERATION", usage = "APPLY or REMOVE", required = true)
+    public BatchOverrides.Operation operation;
+
+    @Argument(index = 1, metaVar = "LIBRARY", usage = "Name of the library", required = true)
+    public String library;
+
+    @Argument(index = 2, metaVar = "VERSION", usage = "Version of the library, required to apply")
+    public String version;
+
+    @Option(name = "--folder", metaVar = "FOLDER", usage = "Full name of the subtree root, the whole instance if unset")
+    public String folder;
+
+    @Option(
+            name = "--pattern",
+            metaVar = "GLOB",
+            usage = "Glob on the folder full names, '*' not crossing folders and '**' crossing them")
+    public String pattern;
+
+    @Override
+    public String getShortDescription() {
+        return "Applies or removes a shared library version override on many folders.";
+    }
+
+    @Override
+    protected int run() throws Exception {
+        AbstractFolder<?> root = null;
+        if (folder != null) {
+            root = Jenkins.get().getItemByFullName(folder, AbstractFolder.class);
+            if (root == null) {
+                throw new IllegalArgumentException("Unknown folder " + folder);
+            }
+        }
+        List<BatchOverrides.FolderResult> results =
+                BatchOverrides.execute(operation, library, version, root, pattern);
+        int failed = 0;
+        for (BatchOverrides.FolderResult result : results) {
+            stdout.println(result);
+            if (result.getStatus() == BatchOverrides.Status.FAILED) {
+                failed++;
+            }
+        }
+        return failed == 0 ? 0 : 1;
+    }
+}
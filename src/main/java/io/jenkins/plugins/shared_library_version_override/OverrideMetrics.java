@@ -0,0 +1,172 @@
+package io.jenkins.plugins.shared_library_version_override;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.util.FormValidation;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Counters and latency histograms of the override resolution, since Jenkins startup
+ *
+ * @author Cyril Pottiers
+ */
+@Extension
+public class OverrideMetrics extends ResolutionListener {
+
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder[]> caches = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the metrics of the current Jenkins instance
+     *
+     * @return the metrics
+     */
+    public static OverrideMetrics get() {
+        return ExtensionList.lookupSingleton(OverrideMetrics.class);
+    }
+
+    private static final String TRUSTED_CALLS = "resolver.trusted.calls";
+    private static final String UNTRUSTED_CALLS = "resolver.untrusted.calls";
+    private static final String TRUSTED_NANOS = "resolver.trusted.nanos";
+    private static final String UNTRUSTED_NANOS = "resolver.untrusted.nanos";
+    private static final String DEPTH = "index.depth";
+
+    private void increment(String counter) {
+        counters.computeIfAbsent(counter, k -> new LongAdder()).increment();
+    }
+
+    private void record(String histogram, long value) {
+        histograms.computeIfAbsent(histogram, k -> new Histogram()).record(value);
+    }
+
+    @Override
+    public void onResolved(boolean trusted, long nanos) {
+        increment(trusted ? TRUSTED_CALLS : UNTRUSTED_CALLS);
+        record(trusted ? TRUSTED_NANOS : UNTRUSTED_NANOS, nanos);
+    }
+
+    @Override
+    public void onFoldersWalked(int depth) {
+        record(DEPTH, depth);
+    }
+
+    @Override
+    public void onOverrideMatched(String name) {
+        increment("overrides.matched");
+    }
+
+    @Override
+    public void onOverrideSkipped(String name, SkipReason reason) {
+        increment("overrides.skipped." + reason.name().toLowerCase(Locale.ROOT));
+    }
+
+    @Override
+    public void onCacheLookup(String cache, boolean hit) {
+        // hits then misses
+        LongAdder[] adders = caches.computeIfAbsent(cache, k -> new LongAdder[] {new LongAdder(), new LongAdder()});
+        adders[hit ? 0 : 1].increment();
+    }
+
+    @Override
+    public void onVersionValidated(String name, long nanos, FormValidation.Kind kind) {
+        increment("validation." + kind.name().toLowerCase(Locale.ROOT));
+        record("validation.nanos", nanos);
+    }
+
+    /**
+     * Returns the value of a counter
+     *
+     * @param counter the counter name
+     * @return the counter value
+     */
+    public long getCount(String counter) {
+        LongAdder adder = counters.get(counter);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    /**
+     * Returns the number of lookups of a cache
+     *
+     * @param cache the cache name
+     * @param hit true to count hits, false to count misses
+     * @return the number of hits or misses
+     */
+    public long getCacheCount(String cache, boolean hit) {
+        LongAdder[] adders = caches.get(cache);
+        return adders == null ? 0 : adders[hit ? 0 : 1].sum();
+    }
+
+    /**
+     * Returns all counters and histograms
+     *
+     * @return the metrics as JSON
+     */
+    @NonNull
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        JSONObject c = new JSONObject();
+        for (Map.Entry<String, LongAdder> e : new TreeMap<>(counters).entrySet()) {
+            c.put(e.getKey(), e.getValue().sum());
+        }
+        for (Map.Entry<String, LongAdder[]> e : new TreeMap<>(caches).entrySet()) {
+            c.put("cache." + e.getKey() + ".hits", e.getValue()[0].sum());
+            c.put("cache." + e.getKey() + ".misses", e.getValue()[1].sum());
+        }
+        json.put("counters", c);
+        JSONObject h = new JSONObject();
+        for (Map.Entry<String, Histogram> e : new TreeMap<>(histograms).entrySet()) {
+            h.put(e.getKey(), e.getValue().toJSON());
+        }
+        json.put("histograms", h);
+        return json;
+    }
+
+    /**
+     * Histogram with power of ten buckets
+     */
+    private static final class Histogram {
+        private static final int BUCKETS = 19;
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+        Histogram() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long value) {
+            count.increment();
+            sum.add(value);
+            int bucket = 0;
+            for (long bound = 1; bucket < BUCKETS - 1 && value >= bound; bound *= 10) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+        }
+
+        JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("count", count.sum());
+            json.put("sum", sum.sum());
+            // bucket i counts the values lower than 10^i
+            JSONArray b = new JSONArray();
+            for (LongAdder bucket : buckets) {
+                b.add(bucket.sum());
+            }
+            json.put("buckets", b);
+            return json;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package io.jenkins.plugins.shared_library_version_override;
+
+import com.cloudbees.hudson.plugins.folder.AbstractFolder;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.BulkChange;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.init.Terminator;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+
+/**
+ * Write-behind persistence of the folder overrides.
+ * The changes are visible at once, the folders changed during the flush delay are saved once.
+ *
+ * @author Cyril Pottiers
+ */
+@Extension
+public class OverridePersistence {
+    private static final Logger LOGGER = Logger.getLogger(OverridePersistence.class.getName());
+
+    /**
+     * Maximum delay between a change and the save of the folder, in milliseconds
+     */
+    private static final long DELAY = SystemProperties.getLong(OverridePersistence.class.getName() + ".delay", 1_000L);
+
+    private final Set<AbstractFolder<?>> pending = ConcurrentHashMap.newKeySet();
+
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * Returns the persistence of the current Jenkins instance
+     *
+     * @return the persistence
+     */
+    public static OverridePersistence get() {
+        return ExtensionList.lookupSingleton(OverridePersistence.class);
+    }
+
+    /**
+     * Replaces the overrides of a folder, adding the property if missing, and schedules the save of the folder
+     *
+     * @param folder the folder
+     * @param overrides the new overrides
+     * @throws IOException if the property cannot be added
+     */
+    public void update(@NonNull AbstractFolder<?> folder, @NonNull List<LibraryCustomConfiguration> overrides)
+            throws IOException {
+        FolderConfigurations prop = folder.getProperties().get(FolderConfigurations.class);
+        if (prop == null) {
+            prop = new FolderConfigurations();
+            prop.setOverrides(overrides);
+            // the folder is saved with the next flush
+            BulkChange bc = new BulkChange(folder);
+            try {
+                folder.addProperty(prop);
+            } finally {
+                bc.abort();
+            }
+            OverrideIndex.get().invalidate(folder.getFullName());
+        } else {
+            prop.setOverrides(overrides);
+        }
+        schedule(folder);
+    }
+
+    /**
+     * Schedules the save of a folder
+     *
+     * @param folder the folder
+     */
+    public void schedule(@NonNull AbstractFolder<?> folder) {
+        pending.add(folder);
+        if (scheduled.compareAndSet(false, true)) {
+            Timer.get().schedule(this::flush, DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Saves the folders changed since the last flush
+     */
+    public void flush() {
+        scheduled.set(false);
+        try (ACLContext ignored = ACL.as2(ACL.SYSTEM2)) {
+            for (Iterator<AbstractFolder<?>> it = pending.iterator(); it.hasNext(); ) {
+                AbstractFolder<?> folder = it.next();
+                it.remove();
+                // a deleted folder must not be written back
+                if (Jenkins.get().getItemByFullName(folder.getFullName()) != folder) {
+                    continue;
+                }
+                try {
+                    folder.save();
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Cannot save the overrides of " + folder.getFullName(), e);
+                }
+            }
+        }
+    }
+
+    @Terminator
+    public static void flushOnShutdown() {
+        OverridePersistence persistence =
+                ExtensionList.lookup(OverridePersistence.class).get(OverridePersistence.class);
+        if (persistence != null) {
+            persistence.flush();
+        }
+    }
+}
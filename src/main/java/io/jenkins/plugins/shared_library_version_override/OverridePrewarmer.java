@@ -0,0 +1,177 @@
+package io.jenkins.plugins.shared_library_version_override;
+
+import com.cloudbees.hudson.plugins.folder.AbstractFolder;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import hudson.model.TaskListener;
+import hudson.model.listeners.SaveableListener;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.SystemProperties;
+import org.jenkinsci.plugins.workflow.libs.FolderLibraries;
+import org.jenkinsci.plugins.workflow.libs.LibraryConfiguration;
+import org.jenkinsci.plugins.workflow.libs.LibraryRetriever;
+import org.jenkinsci.plugins.workflow.libs.SCMSourceRetriever;
+
+/**
+ * Fetches in background from the SCM the overridden versions of the libraries when a folder is saved,
+ * so that the SCM caches (like the repository cache of the git plugin) are filled before the first builds
+ * after a rollout. The library cache of the builds is not filled, the first build using a version still retrieves it.
+ * Disabled by default.
+ *
+ * @author Cyril Pottiers
+ */
+@Extension
+public class OverridePrewarmer {
+    private static final Logger LOGGER = Logger.getLogger(OverridePrewarmer.class.getName());
+
+    /**
+     * Whether overridden versions are fetched when a folder is saved
+     */
+    private static final boolean ENABLED =
+            SystemProperties.getBoolean(OverridePrewarmer.class.getName() + ".enabled", false);
+
+    /**
+     * Maximum number of concurrent fetches
+     */
+    private static final int POOL_SIZE =
+            SystemProperties.getInteger(OverridePrewarmer.class.getName() + ".poolSize", 2);
+
+    /**
+     * Maximum number of fetches waiting for a worker, the others are dropped
+     */
+    private static final int QUEUE_SIZE =
+            SystemProperties.getInteger(OverridePrewarmer.class.getName() + ".queueSize", 100);
+
+    /**
+     * How long a fetched version is not fetched again, in milliseconds
+     */
+    private static final long TTL = SystemProperties.getLong(OverridePrewarmer.class.getName() + ".ttl", 600_000L);
+
+    /**
+     * Start time of the fetches by retriever and version, dropped with the retriever
+     */
+    private final Map<LibraryRetriever, ConcurrentMap<String, Long>> fetched =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final ThreadPoolExecutor executor;
+
+    public OverridePrewarmer() {
+        executor = new ThreadPoolExecutor(
+                POOL_SIZE,
+                POOL_SIZE,
+                60L,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_SIZE),
+                new NamingThreadFactory(new DaemonThreadFactory(), "OverridePrewarmer"));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the prewarmer of the current Jenkins instance
+     *
+     * @return the prewarmer
+     */
+    public static OverridePrewarmer get() {
+        return ExtensionList.lookupSingleton(OverridePrewarmer.class);
+    }
+
+    /**
+     * Fetches in background the versions overridden by a folder, for SCM based libraries.
+     * The saved configuration of the folder is read directly, the index may not be invalidated yet.
+     * A version already fetched for another folder is skipped.
+     *
+     * @param folder the folder
+     */
+    public void prewarm(@NonNull AbstractFolder<?> folder) {
+        FolderConfigurations prop = folder.getProperties().get(FolderConfigurations.class);
+        if (prop == null) {
+            return;
+        }
+        Map<String, LibraryConfiguration> trusted = OverrideIndex.get().getTrustedLibrariesByName();
+        // the libraries of the folder shadow the ones of its ancestors
+        Map<String, LibraryConfiguration> untrusted = new HashMap<>();
+        FolderLibraries libraries = folder.getProperties().get(FolderLibraries.class);
+        if (libraries != null) {
+            for (LibraryConfiguration lib : libraries.getLibraries()) {
+                untrusted.putIfAbsent(lib.getName(), lib);
+            }
+        }
+        for (LibraryConfiguration lib : OverrideIndex.get().getUntrustedLibrariesByName(folder.getParent()).values()) {
+            untrusted.putIfAbsent(lib.getName(), lib);
+        }
+        List<LibraryCustomConfiguration> items = new ArrayList<>(prop.getEffectiveOverrides());
+        items.addAll(prop.getScopedOverrides());
+        for (LibraryCustomConfiguration item : items) {
+            // patterns are resolved when the refs are listed, not on the saving thread
+            if (VersionPattern.isPattern(item.getVersion())) {
+                continue;
+            }
+            for (Map<String, LibraryConfiguration> libs : Arrays.asList(trusted, untrusted)) {
+                LibraryConfiguration lib = libs.get(item.getName());
+                if (lib != null && lib.isAllowVersionOverride() && lib.getRetriever() instanceof SCMSourceRetriever) {
+                    prewarm(lib.getName(), item.getVersion(), (SCMSourceRetriever) lib.getRetriever());
+                }
+            }
+        }
+    }
+
+    private void prewarm(String name, String version, SCMSourceRetriever retriever) {
+        if (version == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        ConcurrentMap<String, Long> versions = fetched.computeIfAbsent(retriever, k -> new ConcurrentHashMap<>());
+        Long previous = versions.get(version);
+        boolean miss;
+        if (previous == null) {
+            miss = versions.putIfAbsent(version, now) == null;
+        } else {
+            miss = now - previous > TTL && versions.replace(version, previous, now);
+        }
+        ResolutionListener.fireCacheLookup("prewarm", !miss);
+        if (!miss) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+                    long start = System.nanoTime();
+                    retriever.getScm().fetch(version, TaskListener.NULL, null);
+                    LOGGER.log(Level.FINE, "OverridePrewarmer fetched {0}@{1} in {2} ms", new Object[] {
+                        name, version, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+                    });
+                } catch (Exception e) {
+                    LOGGER.log(Level.FINE, "OverridePrewarmer cannot fetch " + name + "@" + version, e);
+                    versions.remove(version, now);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // too many pending fetches, the builds will fetch it
+            LOGGER.log(Level.FINE, "OverridePrewarmer drops {0}@{1}", new Object[] {name, version});
+            versions.remove(version, now);
+        }
+    }
+
+    /**
+     * Prewarms the overrides of a saved folder
+     */
+    @Extension
+    public static class SaveableListenerImpl extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (ENABLED && o instanceof AbstractFolder) {
+                get().prewarm((AbstractFolder<?>) o);
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package io.jenkins.plugins.shared_library_version_override;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.ExtensionList;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+
+/**
+ * Hashed timer wheel flipping the time-boxed overrides on and off.
+ * Each owner of time-boxed overrides registers its next activation or expiry, and is called back at that instant
+ * to recompute its active overrides and invalidate the index. Builds never compare the overrides with the clock,
+ * and no periodic scan of the folders is needed.
+ *
+ * @author Cyril Pottiers
+ */
+@Extension
+public class OverrideSchedule {
+    private static final Logger LOGGER = Logger.getLogger(OverrideSchedule.class.getName());
+
+    /**
+     * Duration of a tick, in milliseconds
+     */
+    private static final long TICK = SystemProperties.getLong(OverrideSchedule.class.getName() + ".tick", 1_000L);
+
+    /**
+     * Number of slots of the wheel, a power of 2
+     */
+    private static final int WHEEL_SIZE = 512;
+
+    @SuppressWarnings("unchecked")
+    private final List<Timeout>[] wheel = new List[WHEEL_SIZE];
+
+    /**
+     * Pending timeout of each owner, a new one replaces the previous one.
+     * The owners are compared by equality: the folders are keyed by full name so that a replaced configuration
+     * is not kept until its timeout expires.
+     */
+    private final Map<Object, Timeout> byOwner = new HashMap<>();
+
+    /**
+     * Slot processed at the next tick, and the time of the next tick
+     */
+    private int cursor;
+
+    private long tickTime;
+
+    private boolean started;
+
+    public OverrideSchedule() {
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new ArrayList<>();
+        }
+    }
+
+    /**
+     * Returns the schedule of the current Jenkins instance
+     *
+     * @return the schedule
+     */
+    public static OverrideSchedule get() {
+        return ExtensionList.lookupSingleton(OverrideSchedule.class);
+    }
+
+    /**
+     * Calls back an owner at a given instant, replacing its pending callback if any
+     *
+     * @param owner the key of the owner of the time-boxed overrides, like a folder full name
+     * @param deadline the instant, in milliseconds since the epoch
+     * @param task the callback
+     */
+    public synchronized void schedule(@NonNull Object owner, long deadline, @NonNull Runnable task) {
+        if (!started) {
+            started = true;
+            tickTime = System.currentTimeMillis() + TICK;
+            Timer.get().scheduleWithFixedDelay(this::tick, TICK, TICK, TimeUnit.MILLISECONDS);
+        }
+        cancel(owner);
+        long ticks = deadline <= tickTime ? 0 : (deadline - tickTime + TICK - 1) / TICK;
+        Timeout timeout = new Timeout(owner, ticks / WHEEL_SIZE, task);
+        wheel[(int) ((cursor + ticks) & (WHEEL_SIZE - 1))].add(timeout);
+        byOwner.put(owner, timeout);
+    }
+
+    /**
+     * Drops the pending callback of an owner
+     *
+     * @param owner the key of the owner of the time-boxed overrides
+     */
+    public synchronized void cancel(@NonNull Object owner) {
+        Timeout timeout = byOwner.remove(owner);
+        if (timeout != null) {
+            timeout.cancelled = true;
+        }
+    }
+
+    /**
+     * Processes the slots of the ticks elapsed since the previous one
+     */
+    void tick() {
+        List<Timeout> expired = new ArrayList<>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            while (tickTime <= now) {
+                for (Iterator<Timeout> it = wheel[cursor].iterator(); it.hasNext(); ) {
+                    Timeout timeout = it.next();
+                    if (timeout.cancelled) {
+                        it.remove();
+                    } else if (timeout.rounds > 0) {
+                        timeout.rounds--;
+                    } else {
+                        it.remove();
+                        byOwner.remove(timeout.owner, timeout);
+                        expired.add(timeout);
+                    }
+                }
+                cursor = (cursor + 1) & (WHEEL_SIZE - 1);
+                tickTime += TICK;
+            }
+        }
+        // the callbacks may schedule again
+        for (Timeout timeout : expired) {
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "OverrideSchedule callback failed for " + timeout.owner, e);
+            }
+        }
+    }
+
+    private static final class Timeout {
+        private final Object owner;
+        private final Runnable task;
+
+        /**
+         * Number of full turns of the wheel before the timeout expires
+         */
+        private long rounds;
+
+        private boolean cancelled;
+
+        Timeout(Object owner, long rounds, Runnable task) {
+            this.owner = owner;
+            this.rounds = rounds;
+            this.task = task;
+        }
+    }
+}
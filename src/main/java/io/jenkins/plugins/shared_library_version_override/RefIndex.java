@@ -0,0 +1,203 @@
+package io.jenkins.plugins.shared_library_version_override;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.Item;
+import hudson.model.PeriodicWork;
+import hudson.model.TaskListener;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import org.jenkinsci.plugins.workflow.libs.LibraryRetriever;
+import org.jenkinsci.plugins.workflow.libs.SCMSourceRetriever;
+
+/**
+ * Refs of the SCM based libraries, listed in background and refreshed periodically,
+ * so that version patterns are resolved without any remote call at build start.
+ *
+ * @author Cyril Pottiers
+ */
+@Extension
+public class RefIndex {
+    private static final Logger LOGGER = Logger.getLogger(RefIndex.class.getName());
+
+    /**
+     * How long the refs of a library are kept before being listed again, in milliseconds
+     */
+    private static final long REFRESH =
+            SystemProperties.getLong(RefIndex.class.getName() + ".refresh", TimeUnit.MINUTES.toMillis(5));
+
+    /**
+     * Refs by retriever, dropped with the retriever when the libraries are reconfigured
+     */
+    private final Map<LibraryRetriever, Entry> entries = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final ThreadPoolExecutor executor;
+
+    public RefIndex() {
+        executor = new ThreadPoolExecutor(
+                1,
+                1,
+                60L,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), "RefIndex"));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the index of the current Jenkins instance
+     *
+     * @return the index
+     */
+    public static RefIndex get() {
+        return ExtensionList.lookupSingleton(RefIndex.class);
+    }
+
+    /**
+     * Returns the refs of a library, without waiting for them to be listed
+     *
+     * @param retriever the library retriever
+     * @param context the folder using the library, which credentials list the refs, null for the root
+     * @return the refs, or null if they are not listed yet or the retriever is not SCM based
+     */
+    @CheckForNull
+    public Set<String> getRefs(@NonNull LibraryRetriever retriever, @CheckForNull Item context) {
+        Set<String> refs = getRefsAsync(retriever, context).getNow(null);
+        ResolutionListener.fireCacheLookup("refs", refs != null);
+        return refs;
+    }
+
+    /**
+     * Returns the refs of a library, listing them in background the first time
+     *
+     * @param retriever the library retriever
+     * @param context the folder using the library, which credentials list the refs, null for the root
+     * @return the pending refs, null if the retriever is not SCM based
+     */
+    @NonNull
+    public CompletableFuture<Set<String>> getRefsAsync(
+            @NonNull LibraryRetriever retriever, @CheckForNull Item context) {
+        if (!(retriever instanceof SCMSourceRetriever)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Entry entry = entries.computeIfAbsent(retriever, k -> new Entry());
+        if (context != null) {
+            entry.context = context.getFullName();
+        }
+        if (entry.refreshed == 0) {
+            refresh((SCMSourceRetriever) retriever, entry);
+        }
+        return entry.refs;
+    }
+
+    /**
+     * Resolves a version pattern against the known refs of a library, without waiting for them to be listed.
+     * The refs are listed when the override is saved or validated, and the overrides resolved before are
+     * invalidated once they are listed.
+     *
+     * @param retriever the library retriever
+     * @param pattern the version pattern
+     * @param context the folder using the library, which credentials list the refs, null for the root
+     * @return the greatest matching ref, or null if none matches or the refs are not listed yet
+     */
+    @CheckForNull
+    public String resolve(@NonNull LibraryRetriever retriever, @NonNull String pattern, @CheckForNull Item context) {
+        Set<String> refs = getRefs(retriever, context);
+        return refs == null ? null : VersionPattern.resolve(pattern, refs);
+    }
+
+    /**
+     * Lists again the refs older than the refresh period
+     */
+    public void refreshStale() {
+        long now = System.currentTimeMillis();
+        List<Map.Entry<LibraryRetriever, Entry>> stale = new ArrayList<>();
+        synchronized (entries) {
+            for (Map.Entry<LibraryRetriever, Entry> e : entries.entrySet()) {
+                if (e.getValue().refreshed != 0 && now - e.getValue().refreshed > REFRESH) {
+                    stale.add(e);
+                }
+            }
+        }
+        for (Map.Entry<LibraryRetriever, Entry> e : stale) {
+            refresh((SCMSourceRetriever) e.getKey(), e.getValue());
+        }
+    }
+
+    private void refresh(SCMSourceRetriever retriever, Entry entry) {
+        if (!entry.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                Set<String> refs;
+                try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+                    // the folder credentials are only available with the folder as context
+                    Item context = entry.context == null
+                            ? null
+                            : Jenkins.get().getItemByFullName(entry.context, Item.class);
+                    refs = Collections.unmodifiableSet(
+                            new HashSet<>(retriever.getScm().fetchRevisions(TaskListener.NULL, context)));
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "RefIndex cannot list the refs of " + retriever.getScm(), e);
+                    refs = null;
+                } finally {
+                    entry.refreshed = System.currentTimeMillis();
+                    entry.refreshing.set(false);
+                }
+                if (!entry.refs.isDone()) {
+                    // the first listing, even failed, answers the pending validations
+                    entry.refs.complete(refs == null ? Collections.emptySet() : refs);
+                } else if (refs != null && !refs.equals(entry.refs.getNow(null))) {
+                    entry.refs = CompletableFuture.completedFuture(refs);
+                } else {
+                    return;
+                }
+                // the overrides resolved from these refs may resolve to other refs
+                OverrideIndex.get().invalidate(retriever);
+            });
+        } catch (RejectedExecutionException e) {
+            entry.refreshing.set(false);
+        }
+    }
+
+    private static final class Entry {
+        private volatile CompletableFuture<Set<String>> refs = new CompletableFuture<>();
+        private volatile long refreshed;
+
+        /**
+         * Full name of the latest folder using the library, null for the root
+         */
+        @CheckForNull
+        private volatile String context;
+
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+    }
+
+    /**
+     * Refreshes the stale refs
+     */
+    @Extension
+    public static class Refresher extends PeriodicWork {
+        @Override
+        public long getRecurrencePeriod() {
+            return MIN;
+        }
+
+        @Override
+        protected void doRun() {
+            RefIndex.get().refreshStale();
+        }
+    }
+}
@@ -0,0 +1,503 @@
+package io.jenkins.plugins.shared_library_version_override;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.Util;
+import hudson.init.Terminator;
+import hudson.model.Executor;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+import net.sf.json.JSONObject;
+import org.jenkinsci.plugins.workflow.cps.CpsThread;
+import org.jenkinsci.plugins.workflow.libs.LibrariesAction;
+import org.jenkinsci.plugins.workflow.libs.LibraryConfiguration;
+import org.jenkinsci.plugins.workflow.libs.LibraryRecord;
+
+/**
+ * Append-only log of the overridden versions each build received.
+ * The overrides returned to a build are kept until it completes, then only the ones the build actually loaded
+ * are recorded, once the duplicates are discarded.
+ * Records are queued and written in batches to rotated binary segments under
+ * {@code JENKINS_HOME/shared-library-version-override/audit}. Each segment is indexed by folder and library,
+ * so that a query only reads the segments which may match.
+ *
+ * @author Cyril Pottiers
+ */
+@Extension
+public class ResolutionAuditLog extends ResolutionListener {
+    private static final Logger LOGGER = Logger.getLogger(ResolutionAuditLog.class.getName());
+
+    /**
+     * Delay between a resolution and its write, in milliseconds
+     */
+    private static final long DELAY = SystemProperties.getLong(ResolutionAuditLog.class.getName() + ".delay", 1_000L);
+
+    /**
+     * Size above which a segment is closed, in bytes
+     */
+    private static final long SEGMENT_SIZE =
+            SystemProperties.getLong(ResolutionAuditLog.class.getName() + ".segmentSize", 16L * 1024 * 1024);
+
+    /**
+     * Maximum number of segments kept, the oldest are deleted
+     */
+    private static final int MAX_SEGMENTS =
+            SystemProperties.getInteger(ResolutionAuditLog.class.getName() + ".maxSegments", 64);
+
+    /**
+     * Maximum number of records waiting to be written, the others are dropped
+     */
+    private static final int MAX_PENDING =
+            SystemProperties.getInteger(ResolutionAuditLog.class.getName() + ".maxPending", 100_000);
+
+    private static final byte FORMAT = 1;
+
+    private final Queue<Record> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * Overrides returned to the running builds, by build then by trust and library name
+     */
+    private final Map<Run<?, ?>, Map<String, Record>> resolved = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * Segments from the oldest to the active one, loaded on first use
+     */
+    @CheckForNull
+    private List<Segment> segments;
+
+    /**
+     * Returns the audit log of the current Jenkins instance
+     *
+     * @return the audit log
+     */
+    public static ResolutionAuditLog get() {
+        return ExtensionList.lookupSingleton(ResolutionAuditLog.class);
+    }
+
+    @Override
+    public void onJobResolved(Job<?, ?> job, boolean trusted, Collection<LibraryConfiguration> libraries) {
+        Run<?, ?> build = getCurrentBuild(job);
+        long now = System.currentTimeMillis();
+        // the scoped rules are matched once per job, not once per library
+        Map<String, String> sources = OverrideIndex.get().getOverrideSources(job);
+        for (LibraryConfiguration lib : libraries) {
+            String source = sources.get(lib.getName());
+            Record record = new Record(
+                    now,
+                    job.getFullName(),
+                    build == null ? 0 : build.getNumber(),
+                    lib.getName(),
+                    Util.fixNull(source),
+                    Util.fixNull(lib.getDefaultVersion()),
+                    trusted);
+            if (build == null) {
+                // not attributable to a build, recorded as is
+                enqueue(record);
+            } else {
+                resolved.computeIfAbsent(build, k -> new HashMap<>()).putIfAbsent(key(trusted, lib.getName()), record);
+            }
+        }
+    }
+
+    /**
+     * Records the overrides a build loaded, in the order the libraries were added
+     */
+    void onCompleted(Run<?, ?> build) {
+        Map<String, Record> records = resolved.remove(build);
+        LibrariesAction action = build.getAction(LibrariesAction.class);
+        if (records == null || action == null) {
+            return;
+        }
+        for (LibraryRecord library : action.getLibraries()) {
+            Record record = records.get(key(library.isTrusted(), library.getName()));
+            if (record != null && record.version.equals(library.getVersion())) {
+                enqueue(record);
+            }
+        }
+    }
+
+    private static String key(boolean trusted, String name) {
+        return (trusted ? "trusted:" : "untrusted:") + name;
+    }
+
+    private void enqueue(Record record) {
+        if (pending.incrementAndGet() > MAX_PENDING) {
+            pending.decrementAndGet();
+            dropped.increment();
+            return;
+        }
+        queue.add(record);
+        if (scheduled.compareAndSet(false, true)) {
+            Timer.get().schedule(this::flush, DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Returns the build loading libraries on the current thread: the build starting on its executor,
+     * or the build running a library step on its CPS VM thread
+     */
+    @CheckForNull
+    private static Run<?, ?> getCurrentBuild(Job<?, ?> job) {
+        hudson.model.Queue.Executable executable = null;
+        Executor executor = Executor.currentExecutor();
+        if (executor != null) {
+            executable = executor.getCurrentExecutable();
+        }
+        CpsThread thread = CpsThread.current();
+        if (executable == null && thread != null) {
+            try {
+                executable = thread.getExecution().getOwner().getExecutable();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "ResolutionAuditLog cannot find the build of " + job.getFullName(), e);
+            }
+        }
+        if (executable instanceof Run && ((Run<?, ?>) executable).getParent() == job) {
+            return (Run<?, ?>) executable;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of records dropped because too many were waiting to be written
+     *
+     * @return the number of dropped records
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Writes the queued records
+     */
+    public synchronized void flush() {
+        scheduled.set(false);
+        if (queue.isEmpty()) {
+            return;
+        }
+        try {
+            List<Segment> all = getSegments();
+            Segment active = all.get(all.size() - 1);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(active.file, true)))) {
+                for (Record r = queue.poll(); r != null; r = queue.poll()) {
+                    pending.decrementAndGet();
+                    r.write(out);
+                    active.add(r);
+                }
+            }
+            if (active.file.length() > SEGMENT_SIZE) {
+                active.close();
+                all.add(new Segment(new File(getDirectory(), Segment.name(System.currentTimeMillis()))));
+                while (all.size() > MAX_SEGMENTS) {
+                    all.remove(0).delete();
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "ResolutionAuditLog cannot write the records", e);
+        }
+    }
+
+    /**
+     * Returns the latest records matching a folder and a library, the written ones and the queued ones
+     *
+     * @param folder a folder full name, matching the records of its jobs and of its overrides, null for all
+     * @param library a library name, null for all
+     * @param limit the maximum number of records
+     * @return the records, the latest first
+     */
+    @NonNull
+    public synchronized List<Record> query(@CheckForNull String folder, @CheckForNull String library, int limit) {
+        List<Record> records = new ArrayList<>();
+        // the queued records are the latest, they are not written while the lock is held
+        List<Record> queued = new ArrayList<>();
+        for (Record r : queue) {
+            if (r.matches(folder, library)) {
+                queued.add(r);
+            }
+        }
+        Collections.reverse(queued);
+        records.addAll(queued.subList(0, Math.min(queued.size(), limit)));
+        try {
+            List<Segment> all = getSegments();
+            for (int i = all.size() - 1; i >= 0 && records.size() < limit; i--) {
+                Segment segment = all.get(i);
+                if (!segment.mayContain(folder, library)) {
+                    continue;
+                }
+                List<Record> matching = new ArrayList<>();
+                for (Record r : Segment.read(segment.file)) {
+                    if (r.matches(folder, library)) {
+                        matching.add(r);
+                    }
+                }
+                Collections.reverse(matching);
+                records.addAll(matching.subList(0, Math.min(matching.size(), limit - records.size())));
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "ResolutionAuditLog cannot read the records", e);
+        }
+        return records;
+    }
+
+    private static File getDirectory() {
+        return new File(Jenkins.get().getRootDir(), "shared-library-version-override/audit");
+    }
+
+    private List<Segment> getSegments() throws IOException {
+        if (segments == null) {
+            File dir = getDirectory();
+            Files.createDirectories(dir.toPath());
+            File[] files = dir.listFiles((d, name) -> name.endsWith(".log"));
+            List<Segment> loaded = new ArrayList<>();
+            if (files != null) {
+                Arrays.sort(files);
+                for (File file : files) {
+                    Segment segment = Segment.load(file);
+                    if (!segment.getIndexFile().exists()) {
+                        segment.close();
+                    }
+                    loaded.add(segment);
+                }
+            }
+            // never append after a record possibly truncated by a crash
+            loaded.add(new Segment(new File(dir, Segment.name(System.currentTimeMillis()))));
+            segments = loaded;
+        }
+        return segments;
+    }
+
+    /**
+     * Records the overrides of the completed builds
+     */
+    @Extension
+    public static class RunListenerImpl extends RunListener<Run<?, ?>> {
+        @Override
+        public void onCompleted(Run<?, ?> run, @NonNull TaskListener listener) {
+            ResolutionAuditLog log = ExtensionList.lookup(ResolutionListener.class).get(ResolutionAuditLog.class);
+            if (log != null) {
+                log.onCompleted(run);
+            }
+        }
+    }
+
+    @Terminator
+    public static void flushOnShutdown() {
+        ResolutionAuditLog log = ExtensionList.lookup(ResolutionListener.class).get(ResolutionAuditLog.class);
+        if (log != null) {
+            log.flush();
+        }
+    }
+
+    /**
+     * The version of a library a build received
+     */
+    public static final class Record {
+        private final long timestamp;
+        private final String job;
+        private final int build;
+        private final String library;
+        private final String folder;
+        private final String version;
+        private final boolean trusted;
+
+        Record(long timestamp, String job, int build, String library, String folder, String version, boolean trusted) {
+            this.timestamp = timestamp;
+            this.job = job;
+            this.build = build;
+            this.library = library;
+            this.folder = folder;
+            this.version = version;
+            this.trusted = trusted;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public String getJob() {
+            return job;
+        }
+
+        public int getBuild() {
+            return build;
+        }
+
+        public String getLibrary() {
+            return library;
+        }
+
+        /**
+         * @return the full name of the folder defining the override
+         */
+        public String getFolder() {
+            return folder;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public boolean isTrusted() {
+            return trusted;
+        }
+
+        boolean matches(String folder, String library) {
+            return (library == null || library.equals(this.library))
+                    && (folder == null || folder.equals(this.folder) || job.startsWith(folder + "/"));
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(FORMAT);
+            out.writeLong(timestamp);
+            out.writeUTF(job);
+            out.writeInt(build);
+            out.writeUTF(library);
+            out.writeUTF(folder);
+            out.writeUTF(version);
+            out.writeBoolean(trusted);
+        }
+
+        static Record read(DataInputStream in) throws IOException {
+            byte format = in.readByte();
+            if (format != FORMAT) {
+                throw new StreamCorruptedException("Unknown record format " + format);
+            }
+            return new Record(
+                    in.readLong(),
+                    in.readUTF(),
+                    in.readInt(),
+                    in.readUTF(),
+                    in.readUTF(),
+                    in.readUTF(),
+                    in.readBoolean());
+        }
+
+        public JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("timestamp", timestamp);
+            json.put("job", job);
+            json.put("build", build);
+            json.put("library", library);
+            json.put("folder", folder);
+            json.put("version", version);
+            json.put("trusted", trusted);
+            return json;
+        }
+    }
+
+    /**
+     * A log file with the folders and libraries of its records
+     */
+    private static final class Segment {
+        private final File file;
+        private final Set<String> folders = new HashSet<>();
+        private final Set<String> libraries = new HashSet<>();
+
+        Segment(File file) {
+            this.file = file;
+        }
+
+        static String name(long timestamp) {
+            return String.format(Locale.ROOT, "%020d.log", timestamp);
+        }
+
+        void add(Record r) {
+            folders.add(r.folder);
+            // the folders of the job
+            for (int i = r.job.lastIndexOf('/'); i > 0; i = r.job.lastIndexOf('/', i - 1)) {
+                folders.add(r.job.substring(0, i));
+            }
+            libraries.add(r.library);
+        }
+
+        boolean mayContain(String folder, String library) {
+            return (folder == null || folders.contains(folder)) && (library == null || libraries.contains(library));
+        }
+
+        File getIndexFile() {
+            return new File(file.getPath().replaceFirst("\\.log$", ".idx"));
+        }
+
+        /**
+         * Writes the index of a segment which won't be appended anymore
+         */
+        void close() throws IOException {
+            try (DataOutputStream out =
+                    new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getIndexFile())))) {
+                out.writeInt(folders.size());
+                for (String folder : folders) {
+                    out.writeUTF(folder);
+                }
+                out.writeInt(libraries.size());
+                for (String library : libraries) {
+                    out.writeUTF(library);
+                }
+            }
+        }
+
+        void delete() throws IOException {
+            Files.deleteIfExists(file.toPath());
+            Files.deleteIfExists(getIndexFile().toPath());
+        }
+
+        static Segment load(File file) throws IOException {
+            Segment segment = new Segment(file);
+            File index = segment.getIndexFile();
+            if (index.exists()) {
+                try (DataInputStream in =
+                        new DataInputStream(new BufferedInputStream(new FileInputStream(index)))) {
+                    for (int i = in.readInt(); i > 0; i--) {
+                        segment.folders.add(in.readUTF());
+                    }
+                    for (int i = in.readInt(); i > 0; i--) {
+                        segment.libraries.add(in.readUTF());
+                    }
+                }
+            } else {
+                // the active segment, or a segment not closed properly
+                for (Record r : read(file)) {
+                    segment.add(r);
+                }
+            }
+            return segment;
+        }
+
+        static List<Record> read(File file) throws IOException {
+            List<Record> records = new ArrayList<>();
+            if (!file.exists()) {
+                return records;
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                while (true) {
+                    try {
+                        records.add(Record.read(in));
+                    } catch (EOFException | StreamCorruptedException | UTFDataFormatException e) {
+                        // the end, or a record truncated by a crash
+                        break;
+                    }
+                }
+            }
+            return records;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package io.jenkins.plugins.shared_library_version_override;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.util.FormValidation;
+import java.util.HashMap;
+import java.util.Map;
+import org.jenkinsci.plugins.workflow.libs.LibraryConfiguration;
+import org.kohsuke.stapler.Stapler;
+import org.kohsuke.stapler.StaplerRequest;
+
+/**
+ * Libraries known for an item, resolved once and shared by the form validations of a request.
+ * Trusted global libraries take precedence over untrusted ones, then the nearest folder wins.
+ *
+ * @author Cyril Pottiers
+ */
+public final class ResolutionContext {
+    private static final String ATTRIBUTE = ResolutionContext.class.getName();
+
+    @CheckForNull
+    private final Item item;
+
+    @CheckForNull
+    private final ItemGroup<?> group;
+
+    private final Map<String, LibraryConfiguration> trusted;
+    private final Map<String, LibraryConfiguration> untrusted;
+
+    @CheckForNull
+    private Map<String, LibraryConfiguration> all;
+
+    private ResolutionContext(@CheckForNull Item item) {
+        this.item = item;
+        this.group = getItemGroupFromItem(item);
+        OverrideIndex index = OverrideIndex.get();
+        this.trusted = index.getTrustedLibrariesByName();
+        this.untrusted = index.getUntrustedLibrariesByName(group);
+    }
+
+    /**
+     * Returns the context of an item for the current request
+     *
+     * @param item the item, null for the root
+     * @return the context
+     */
+    @NonNull
+    public static ResolutionContext of(@CheckForNull Item item) {
+        StaplerRequest req = Stapler.getCurrentRequest();
+        if (req == null) {
+            return new ResolutionContext(item);
+        }
+        Object attribute = req.getAttribute(ATTRIBUTE);
+        if (attribute instanceof ResolutionContext && ((ResolutionContext) attribute).item == item) {
+            return (ResolutionContext) attribute;
+        }
+        ResolutionContext context = new ResolutionContext(item);
+        req.setAttribute(ATTRIBUTE, context);
+        return context;
+    }
+
+    /**
+     * Returns the group holding the libraries of an item: the item itself if it is a group, else its parent
+     *
+     * @param item the item
+     * @return the group
+     */
+    @CheckForNull
+    public static ItemGroup<?> getItemGroupFromItem(@CheckForNull Item item) {
+        ItemGroup<?> group = null;
+        if (item != null) {
+            if (item instanceof ItemGroup) {
+                group = (ItemGroup<?>) item;
+            } else {
+                group = item.getParent();
+            }
+        }
+        return group;
+    }
+
+    @CheckForNull
+    public ItemGroup<?> getGroup() {
+        return group;
+    }
+
+    /**
+     * Returns a library known in the context
+     *
+     * @param name the library name
+     * @return the library or null if unknown
+     */
+    @CheckForNull
+    public LibraryConfiguration getLibrary(@CheckForNull String name) {
+        if (name == null) {
+            return null;
+        }
+        LibraryConfiguration lib = trusted.get(name);
+        return lib != null ? lib : untrusted.get(name);
+    }
+
+    /**
+     * Returns all the libraries known in the context
+     *
+     * @return the libraries by name
+     */
+    @NonNull
+    public synchronized Map<String, LibraryConfiguration> getLibraries() {
+        if (all == null) {
+            Map<String, LibraryConfiguration> libraries = new HashMap<>(untrusted);
+            libraries.putAll(trusted);
+            all = libraries;
+        }
+        return all;
+    }
+
+    /**
+     * Returns whether a library may be overridden in the context
+     *
+     * @param name the library name
+     * @return true if the library is known and allows version override
+     */
+    public boolean isOverridable(@CheckForNull String name) {
+        LibraryConfiguration lib = getLibrary(name);
+        return lib != null && lib.isAllowVersionOverride();
+    }
+
+    /**
+     * Validates a version of a library known in the context
+     *
+     * @param name the library name
+     * @param version the version
+     * @return the validation, or null if the library is unknown or the validation still pending
+     */
+    @CheckForNull
+    public FormValidation validateVersion(@CheckForNull String name, @NonNull String version) {
+        LibraryConfiguration lib = getLibrary(name);
+        if (lib == null) {
+            return null;
+        }
+        return VersionValidationCache.get().validate(lib.getName(), version, lib.getRetriever(), item);
+    }
+}
@@ -0,0 +1,167 @@
+package io.jenkins.plugins.shared_library_version_override;
+
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import hudson.model.Job;
+import hudson.util.FormValidation;
+import java.util.Collection;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jenkinsci.plugins.workflow.libs.LibraryConfiguration;
+
+/**
+ * Receives the events of the override resolution, to collect metrics or audit the builds
+ *
+ * @author Cyril Pottiers
+ */
+public abstract class ResolutionListener implements ExtensionPoint {
+    private static final Logger LOGGER = Logger.getLogger(ResolutionListener.class.getName());
+
+    /**
+     * Why an override is not applied
+     */
+    public enum SkipReason {
+        /**
+         * The library is not known in the folder
+         */
+        UNKNOWN_LIBRARY,
+        /**
+         * The library doesn't allow version override
+         */
+        VERSION_OVERRIDE_NOT_ALLOWED,
+        /**
+         * The version pattern matches no known ref of the library
+         */
+        UNRESOLVED_VERSION
+    }
+
+    /**
+     * Called when a resolver returned the overridden libraries of a job
+     *
+     * @param trusted whether the resolver is the trusted one
+     * @param nanos the resolution duration in nanoseconds
+     */
+    public void onResolved(boolean trusted, long nanos) {}
+
+    /**
+     * Called when a resolver returned the overridden libraries of a job, if any
+     *
+     * @param job the job
+     * @param trusted whether the resolver is the trusted one
+     * @param libraries the overridden libraries
+     */
+    public void onJobResolved(Job<?, ?> job, boolean trusted, Collection<LibraryConfiguration> libraries) {}
+
+    /**
+     * Called when the folders of a group have been walked to compute its effective overrides
+     *
+     * @param depth the number of folders walked, those with a cached view excluded
+     */
+    public void onFoldersWalked(int depth) {}
+
+    /**
+     * Called when an override is applied to a library
+     *
+     * @param name the library name
+     */
+    public void onOverrideMatched(String name) {}
+
+    /**
+     * Called when an override is not applied
+     *
+     * @param name the library name
+     * @param reason why the override is not applied
+     */
+    public void onOverrideSkipped(String name, SkipReason reason) {}
+
+    /**
+     * Called on each cache lookup
+     *
+     * @param cache the cache name
+     * @param hit whether the value was found in the cache
+     */
+    public void onCacheLookup(String cache, boolean hit) {}
+
+    /**
+     * Called when a library version has been validated against its SCM
+     *
+     * @param name the library name
+     * @param nanos the validation duration in nanoseconds
+     * @param kind the validation result
+     */
+    public void onVersionValidated(String name, long nanos, FormValidation.Kind kind) {}
+
+    public static ExtensionList<ResolutionListener> all() {
+        return ExtensionList.lookup(ResolutionListener.class);
+    }
+
+    static void fireResolved(boolean trusted, long nanos) {
+        for (ResolutionListener l : all()) {
+            try {
+                l.onResolved(trusted, nanos);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, null, e);
+            }
+        }
+    }
+
+    static void fireJobResolved(Job<?, ?> job, boolean trusted, Collection<LibraryConfiguration> libraries) {
+        for (ResolutionListener l : all()) {
+            try {
+                l.onJobResolved(job, trusted, libraries);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, null, e);
+            }
+        }
+    }
+
+    static void fireFoldersWalked(int depth) {
+        for (ResolutionListener l : all()) {
+            try {
+                l.onFoldersWalked(depth);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, null, e);
+            }
+        }
+    }
+
+    static void fireOverrideMatched(String name) {
+        for (ResolutionListener l : all()) {
+            try {
+                l.onOverrideMatched(name);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, null, e);
+            }
+        }
+    }
+
+    static void fireOverrideSkipped(String name, SkipReason reason) {
+        for (ResolutionListener l : all()) {
+            try {
+                l.onOverrideSkipped(name, reason);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, null, e);
+            }
+        }
+    }
+
+    static void fireCacheLookup(String cache, boolean hit) {
+        for (ResolutionListener l : all()) {
+            try {
+                l.onCacheLookup(cache, hit);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, null, e);
+            }
+        }
+    }
+
+    static void fireVersionValidated(String name, long nanos, FormValidation.Kind kind) {
+        for (ResolutionListener l : all()) {
+            try {
+                l.onVersionValidated(name, nanos, kind);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, null, e);
+            }
+        }
+    }
+}
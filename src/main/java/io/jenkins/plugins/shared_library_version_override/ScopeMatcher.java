@@ -0,0 +1,226 @@
+package io.jenkins.plugins.shared_library_version_override;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Job;
+import java.util.*;
+import java.util.regex.Pattern;
+import jenkins.scm.api.SCMHead;
+import jenkins.scm.api.mixin.ChangeRequestSCMHead;
+import jenkins.scm.api.mixin.TagSCMHead;
+import org.jenkinsci.plugins.workflow.libs.LibraryConfiguration;
+
+/**
+ * Scoped overrides applying to a folder, compiled once.
+ * Rules are indexed in tries by the literal prefix of their branch or job name pattern,
+ * so that a job only checks the rules which prefix matches its names.
+ *
+ * @author Cyril Pottiers
+ */
+final class ScopeMatcher {
+    static final ScopeMatcher EMPTY = new ScopeMatcher(Collections.emptyList());
+
+    /**
+     * Rules with a branch pattern, by the literal prefix of the pattern
+     */
+    private final Node byBranch = new Node();
+
+    /**
+     * Rules with a job name pattern and no branch pattern, by the literal prefix of the pattern
+     */
+    private final Node byJob = new Node();
+
+    /**
+     * Rules with a head category only
+     */
+    private final List<Rule> byCategory = new ArrayList<>();
+
+    private final boolean empty;
+
+    ScopeMatcher(@NonNull List<Rule> rules) {
+        for (Rule rule : rules) {
+            if (rule.branchPattern != null) {
+                byBranch.add(rule.item.getBranchPattern(), rule);
+            } else if (rule.jobPattern != null) {
+                byJob.add(rule.item.getJobPattern(), rule);
+            } else {
+                byCategory.add(rule);
+            }
+        }
+        this.empty = rules.isEmpty();
+    }
+
+    /**
+     * Returns the rules matching a job
+     *
+     * @param job the job
+     * @return the matching rules, nearest folder first
+     */
+    @NonNull
+    List<Rule> match(@NonNull Job<?, ?> job) {
+        if (empty) {
+            return Collections.emptyList();
+        }
+        SCMHead head = SCMHead.HeadByItem.findHead(job);
+        String branch = head == null ? null : head.getName();
+        LibraryCustomConfiguration.HeadCategory category = null;
+        if (head instanceof ChangeRequestSCMHead) {
+            category = LibraryCustomConfiguration.HeadCategory.CHANGE_REQUEST;
+        } else if (head instanceof TagSCMHead) {
+            category = LibraryCustomConfiguration.HeadCategory.TAG;
+        } else if (head != null) {
+            category = LibraryCustomConfiguration.HeadCategory.BRANCH;
+        }
+        return match(job.getName(), branch, category);
+    }
+
+    @NonNull
+    List<Rule> match(
+            @NonNull String jobName,
+            @CheckForNull String branch,
+            @CheckForNull LibraryCustomConfiguration.HeadCategory category) {
+        List<Rule> candidates = new ArrayList<>(byCategory);
+        if (branch != null) {
+            byBranch.collect(branch, candidates);
+        }
+        byJob.collect(jobName, candidates);
+        List<Rule> matched = new ArrayList<>(candidates.size());
+        for (Rule rule : candidates) {
+            if (rule.matches(jobName, branch, category)) {
+                matched.add(rule);
+            }
+        }
+        matched.sort(Comparator.comparingInt(r -> r.order));
+        return matched;
+    }
+
+    /**
+     * A scoped override with the libraries it overrides
+     */
+    static final class Rule {
+        private final int order;
+        private final String folder;
+        private final LibraryCustomConfiguration item;
+
+        @CheckForNull
+        private final Pattern jobPattern;
+
+        @CheckForNull
+        private final Pattern branchPattern;
+
+        @CheckForNull
+        private final LibraryCustomConfiguration.HeadCategory category;
+
+        @CheckForNull
+        final LibraryConfiguration trusted;
+
+        @CheckForNull
+        final LibraryConfiguration untrusted;
+
+        /**
+         * @param order the precedence of the rule, lower first
+         * @param folder the full name of the folder defining the override
+         * @param item the scoped override
+         * @param trusted the overridden trusted library, if any
+         * @param untrusted the overridden untrusted library, if any
+         */
+        Rule(
+                int order,
+                String folder,
+                LibraryCustomConfiguration item,
+                @CheckForNull LibraryConfiguration trusted,
+                @CheckForNull LibraryConfiguration untrusted) {
+            this.order = order;
+            this.folder = folder;
+            this.item = item;
+            this.jobPattern = compile(item.getJobPattern());
+            this.branchPattern = compile(item.getBranchPattern());
+            this.category = parseCategory(item.getHeadCategory());
+            this.trusted = trusted;
+            this.untrusted = untrusted;
+        }
+
+        String getFolder() {
+            return folder;
+        }
+
+        String getName() {
+            return item.getName();
+        }
+
+        boolean matches(
+                String jobName, @CheckForNull String branch, @CheckForNull LibraryCustomConfiguration.HeadCategory c) {
+            if (item.getHeadCategory() != null && (category == null || category != c)) {
+                // an unknown category matches nothing
+                return false;
+            }
+            if (branchPattern != null && (branch == null || !branchPattern.matcher(branch).matches())) {
+                return false;
+            }
+            return jobPattern == null || jobPattern.matcher(jobName).matches();
+        }
+
+        private static Pattern compile(@CheckForNull String glob) {
+            return glob == null ? null : Pattern.compile(BatchOverrides.globToRegex(glob));
+        }
+
+        private static LibraryCustomConfiguration.HeadCategory parseCategory(@CheckForNull String value) {
+            if (value == null) {
+                return null;
+            }
+            try {
+                return LibraryCustomConfiguration.HeadCategory.valueOf(value);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Trie node holding the rules which pattern literal prefix ends here
+     */
+    private static final class Node {
+        @CheckForNull
+        private Map<Character, Node> children;
+
+        @CheckForNull
+        private List<Rule> rules;
+
+        void add(String pattern, Rule rule) {
+            Node node = this;
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                if (c == '*' || c == '?') {
+                    break;
+                }
+                if (node.children == null) {
+                    node.children = new HashMap<>();
+                }
+                node = node.children.computeIfAbsent(c, k -> new Node());
+            }
+            if (node.rules == null) {
+                node.rules = new ArrayList<>();
+            }
+            node.rules.add(rule);
+        }
+
+        /**
+         * Collects the rules which prefix is a prefix of the key, in a single descent
+         */
+        void collect(String key, List<Rule> result) {
+            Node node = this;
+            for (int i = 0; ; i++) {
+                if (node.rules != null) {
+                    result.addAll(node.rules);
+                }
+                if (i == key.length() || node.children == null) {
+                    return;
+                }
+                node = node.children.get(key.charAt(i));
+                if (node == null) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package io.jenkins.plugins.shared_library_version_override;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Override versions naming a set of refs rather than a single one.
+ * A glob like {@code release/2.*} resolves to the greatest matching ref, comparing numbers numerically.
+ * A range like {@code ^3.4} (same major version) or {@code ~3.4} (same minor version) resolves to the greatest
+ * matching semantic version, with an optional 'v' prefix. Pre-releases are ignored.
+ *
+ * @author Cyril Pottiers
+ */
+final class VersionPattern {
+    private static final Pattern SEMVER = Pattern.compile("v?(\\d+)(?:\\.(\\d+))?(?:\\.(\\d+))?");
+
+    private static final Pattern CHUNK = Pattern.compile("\\d+|\\D+");
+
+    /**
+     * Orders refs with their numbers compared numerically, so that release/2.10 follows release/2.9
+     */
+    static final Comparator<String> NATURAL_ORDER = VersionPattern::compareNatural;
+
+    private VersionPattern() {}
+
+    /**
+     * Returns whether a version is a pattern, to be resolved against the refs of the library
+     *
+     * @param version the override version
+     * @return true if the version is a glob or a range
+     */
+    static boolean isPattern(@CheckForNull String version) {
+        return version != null
+                && (version.startsWith("^")
+                        || version.startsWith("~")
+                        || version.contains("*")
+                        || version.contains("?"));
+    }
+
+    /**
+     * Returns whether a pattern is well-formed
+     *
+     * @param pattern the pattern
+     * @return false if it is a range which bound is not a version
+     */
+    static boolean isValid(@NonNull String pattern) {
+        return !isRange(pattern) || SEMVER.matcher(pattern.substring(1)).matches();
+    }
+
+    /**
+     * Resolves a pattern to the greatest matching ref
+     *
+     * @param pattern the pattern
+     * @param refs the known refs of the library
+     * @return the ref, or null if none matches
+     */
+    @CheckForNull
+    static String resolve(@NonNull String pattern, @NonNull Collection<String> refs) {
+        if (isRange(pattern)) {
+            return resolveRange(pattern, refs);
+        }
+        Pattern glob = Pattern.compile(BatchOverrides.globToRegex(pattern));
+        String best = null;
+        for (String ref : refs) {
+            if (glob.matcher(ref).matches() && (best == null || NATURAL_ORDER.compare(ref, best) > 0)) {
+                best = ref;
+            }
+        }
+        return best;
+    }
+
+    private static boolean isRange(String pattern) {
+        return pattern.startsWith("^") || pattern.startsWith("~");
+    }
+
+    private static String resolveRange(String pattern, Collection<String> refs) {
+        Matcher m = SEMVER.matcher(pattern.substring(1));
+        if (!m.matches()) {
+            return null;
+        }
+        long[] lower = parse(m);
+        long[] upper;
+        if (pattern.startsWith("^")) {
+            // same major version, or same minor version before 1.0
+            upper = lower[0] > 0 || m.group(2) == null
+                    ? new long[] {lower[0] + 1, 0, 0}
+                    : new long[] {0, lower[1] + 1, 0};
+        } else {
+            // same minor version, or same major version if the minor version is missing
+            upper = m.group(2) == null ? new long[] {lower[0] + 1, 0, 0} : new long[] {lower[0], lower[1] + 1, 0};
+        }
+        String best = null;
+        long[] bestVersion = null;
+        for (String ref : refs) {
+            Matcher r = SEMVER.matcher(ref);
+            if (!r.matches()) {
+                continue;
+            }
+            long[] version = parse(r);
+            if (compare(version, lower) >= 0
+                    && compare(version, upper) < 0
+                    && (bestVersion == null || compare(version, bestVersion) > 0)) {
+                best = ref;
+                bestVersion = version;
+            }
+        }
+        return best;
+    }
+
+    private static long[] parse(Matcher m) {
+        long[] version = new long[3];
+        for (int i = 0; i < 3; i++) {
+            String part = m.group(i + 1);
+            version[i] = part == null ? 0 : Long.parseLong(part);
+        }
+        return version;
+    }
+
+    private static int compare(long[] a, long[] b) {
+        for (int i = 0; i < 3; i++) {
+            int c = Long.compare(a[i], b[i]);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    private static int compareNatural(String a, String b) {
+        Matcher ma = CHUNK.matcher(a);
+        Matcher mb = CHUNK.matcher(b);
+        while (ma.find() && mb.find()) {
+            String ca = ma.group();
+            String cb = mb.group();
+            int c;
+            if (Character.isDigit(ca.charAt(0)) && Character.isDigit(cb.charAt(0))) {
+                // leading zeros aside, a longer number is greater
+                String na = ca.replaceFirst("^0+(?=.)", "");
+                String nb = cb.replaceFirst("^0+(?=.)", "");
+                c = na.length() != nb.length() ? Integer.compare(na.length(), nb.length()) : na.compareTo(nb);
+            } else {
+                c = ca.compareTo(cb);
+            }
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Integer.compare(a.length(), b.length());
+    }
+}
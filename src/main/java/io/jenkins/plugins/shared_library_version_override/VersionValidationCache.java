@@ -0,0 +1,369 @@
+package io.jenkins.plugins.shared_library_version_override;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.Item;
+import hudson.model.TaskListener;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.FormValidation;
+import hudson.util.NamingThreadFactory;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import org.jenkinsci.plugins.workflow.libs.LibraryConfiguration;
+import org.jenkinsci.plugins.workflow.libs.LibraryRetriever;
+import org.jenkinsci.plugins.workflow.libs.SCMSourceRetriever;
+import org.springframework.security.core.Authentication;
+
+/**
+ * Results of the library version validations, computed in background.
+ * Concurrent validations of the same version share a single remote call.
+ *
+ * @author Cyril Pottiers
+ */
+@Extension
+public class VersionValidationCache {
+    private static final Logger LOGGER = Logger.getLogger(VersionValidationCache.class.getName());
+
+    /**
+     * How long a successful validation is kept, in milliseconds
+     */
+    private static final long TTL = SystemProperties.getLong(VersionValidationCache.class.getName() + ".ttl", 300_000L);
+
+    /**
+     * How long a failed validation is kept, in milliseconds
+     */
+    private static final long ERROR_TTL =
+            SystemProperties.getLong(VersionValidationCache.class.getName() + ".errorTtl", 30_000L);
+
+    /**
+     * How long a form validation waits for the result before answering it is still pending, in milliseconds
+     */
+    private static final long WAIT = SystemProperties.getLong(VersionValidationCache.class.getName() + ".wait", 1_000L);
+
+    /**
+     * How long a remote validation may take before it is reported as failed, in milliseconds
+     */
+    private static final long TIMEOUT =
+            SystemProperties.getLong(VersionValidationCache.class.getName() + ".timeout", 60_000L);
+
+    /**
+     * Maximum number of validations kept
+     */
+    private static final int MAX_SIZE =
+            SystemProperties.getInteger(VersionValidationCache.class.getName() + ".maxSize", 1000);
+
+    /**
+     * Maximum number of concurrent remote validations
+     */
+    private static final int POOL_SIZE =
+            SystemProperties.getInteger(VersionValidationCache.class.getName() + ".poolSize", 4);
+
+    private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<>();
+
+    private final ThreadPoolExecutor executor;
+
+    public VersionValidationCache() {
+        executor = new ThreadPoolExecutor(
+                POOL_SIZE,
+                POOL_SIZE,
+                60L,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), "VersionValidationCache"));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the cache of the current Jenkins instance
+     *
+     * @return the cache
+     */
+    public static VersionValidationCache get() {
+        return ExtensionList.lookupSingleton(VersionValidationCache.class);
+    }
+
+    /**
+     * Validates a library version, waiting a little for the result
+     *
+     * @param name the library name
+     * @param version the version to validate
+     * @param retriever the library retriever
+     * @param item the context
+     * @return the validation, or null if it is still pending
+     */
+    @CheckForNull
+    public FormValidation validate(
+            @NonNull String name,
+            @NonNull String version,
+            @NonNull LibraryRetriever retriever,
+            @CheckForNull Item item) {
+        CompletableFuture<FormValidation> result = validateAsync(name, version, retriever, item);
+        try {
+            return result.get(WAIT, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return FormValidation.error(e.getCause(), version);
+        }
+    }
+
+    /**
+     * Validates a library version in background
+     *
+     * @param name the library name
+     * @param version the version to validate
+     * @param retriever the library retriever
+     * @param item the context
+     * @return the pending validation
+     */
+    @NonNull
+    public CompletableFuture<FormValidation> validateAsync(
+            @NonNull String name,
+            @NonNull String version,
+            @NonNull LibraryRetriever retriever,
+            @CheckForNull Item item) {
+        if (VersionPattern.isPattern(version)) {
+            return validatePattern(version, retriever, item);
+        }
+        long now = System.currentTimeMillis();
+        Authentication auth = Jenkins.getAuthentication2();
+        Entry entry = entries.compute(
+                new Key(name, version, retriever, item, auth),
+                (k, e) -> e == null || e.isExpired(now) ? new Entry(now) : e);
+        boolean miss = entry.start();
+        ResolutionListener.fireCacheLookup("validation", !miss);
+        if (miss) {
+            evict(now);
+            // a hung remote call must not keep the validation pending forever
+            entry.result.completeOnTimeout(
+                    FormValidation.error(Messages.LibraryCustomConfiguration_Validation_Timeout()),
+                    TIMEOUT,
+                    TimeUnit.MILLISECONDS);
+            try {
+                executor.execute(() -> {
+                    try (ACLContext ctx = ACL.as2(auth)) {
+                        long start = System.nanoTime();
+                        FormValidation validation = retriever.validateVersion(name, version, item);
+                        ResolutionListener.fireVersionValidated(name, System.nanoTime() - start, validation.kind);
+                        entry.result.complete(validation);
+                    } catch (RuntimeException e) {
+                        LOGGER.log(Level.FINE, "VersionValidationCache cannot validate " + name + "@" + version, e);
+                        entry.result.complete(FormValidation.error(e, version));
+                    } finally {
+                        // an Error is still reported to the waiting validations
+                        entry.result.complete(
+                                FormValidation.error(Messages.LibraryCustomConfiguration_Validation_UnknownVersion()));
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                entry.result.complete(FormValidation.error(e, version));
+            }
+        }
+        return entry.result;
+    }
+
+    private static CompletableFuture<FormValidation> validatePattern(
+            String pattern, LibraryRetriever retriever, @CheckForNull Item item) {
+        if (!VersionPattern.isValid(pattern)) {
+            return failed(Messages.LibraryCustomConfiguration_Validation_UnknownVersion());
+        }
+        return RefIndex.get().getRefsAsync(retriever, item).thenApply(refs -> {
+            String ref = refs == null ? null : VersionPattern.resolve(pattern, refs);
+            return ref == null
+                    ? FormValidation.error(Messages.LibraryCustomConfiguration_Validation_UnknownVersion())
+                    : FormValidation.ok(Messages.LibraryCustomConfiguration_Validation_Resolved(ref));
+        });
+    }
+
+    /**
+     * Validates several library versions in background.
+     * The revisions of each SCM based retriever are listed once, and the versions are checked against this list.
+     * Versions not found in the list, like commit hashes, are validated one by one.
+     *
+     * @param overrides the override configurations to validate
+     * @param libs the LibraryConfigurations known for the context, by name
+     * @param item the context
+     * @return the pending validations, by library name and version joined with '@'
+     */
+    @NonNull
+    public Map<String, CompletableFuture<FormValidation>> validateAllAsync(
+            @NonNull Collection<LibraryCustomConfiguration> overrides,
+            @NonNull Map<String, LibraryConfiguration> libs,
+            @CheckForNull Item item) {
+        long now = System.currentTimeMillis();
+        Authentication auth = Jenkins.getAuthentication2();
+        Map<String, CompletableFuture<FormValidation>> results = new LinkedHashMap<>();
+        Map<LibraryRetriever, List<LibraryCustomConfiguration>> toList = new IdentityHashMap<>();
+        for (LibraryCustomConfiguration override : overrides) {
+            String name = override.getName();
+            String version = override.getVersion();
+            String key = name + "@" + version;
+            if (results.containsKey(key)) {
+                continue;
+            }
+            LibraryConfiguration lib = name == null ? null : libs.get(name);
+            if (lib == null) {
+                results.put(key, failed(Messages.LibraryCustomConfiguration_Validation_NameUnknown()));
+            } else if (!lib.isAllowVersionOverride()) {
+                results.put(key, failed(Messages.LibraryCustomConfiguration_Validation_ImmutableVersion()));
+            } else if (version == null) {
+                results.put(key, failed(Messages.LibraryCustomConfiguration_Validation_EmptyVersion()));
+            } else {
+                Entry entry = entries.get(new Key(name, version, lib.getRetriever(), item, auth));
+                if (entry != null && !entry.isExpired(now) && entry.started.get()) {
+                    results.put(key, entry.result);
+                } else if (lib.getRetriever() instanceof SCMSourceRetriever) {
+                    results.put(key, new CompletableFuture<>());
+                    toList.computeIfAbsent(lib.getRetriever(), r -> new ArrayList<>()).add(override);
+                } else {
+                    results.put(key, validateAsync(name, version, lib.getRetriever(), item));
+                }
+            }
+        }
+        for (Map.Entry<LibraryRetriever, List<LibraryCustomConfiguration>> group : toList.entrySet()) {
+            SCMSourceRetriever retriever = (SCMSourceRetriever) group.getKey();
+            Runnable task = () -> {
+                // the fallback validations run with the same authentication as the listing
+                try (ACLContext ctx = ACL.as2(auth)) {
+                    Set<String> revisions;
+                    try {
+                        long start = System.nanoTime();
+                        revisions = retriever.getScm().fetchRevisions(TaskListener.NULL, item);
+                        ResolutionListener.fireVersionValidated(
+                                group.getValue().get(0).getName(), System.nanoTime() - start, FormValidation.Kind.OK);
+                    } catch (Exception e) {
+                        LOGGER.log(Level.FINE, "VersionValidationCache cannot list revisions", e);
+                        revisions = Collections.emptySet();
+                    }
+                    for (LibraryCustomConfiguration override : group.getValue()) {
+                        String name = override.getName();
+                        String version = override.getVersion();
+                        CompletableFuture<FormValidation> result = results.get(name + "@" + version);
+                        if (revisions.contains(version)) {
+                            FormValidation ok = FormValidation.ok();
+                            put(new Key(name, version, retriever, item, auth), ok);
+                            result.complete(ok);
+                        } else {
+                            validateAsync(name, version, retriever, item).whenComplete((v, e) -> result.complete(v));
+                        }
+                    }
+                }
+            };
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                for (LibraryCustomConfiguration override : group.getValue()) {
+                    results.get(override.getName() + "@" + override.getVersion())
+                            .complete(FormValidation.error(e, override.getVersion()));
+                }
+            }
+        }
+        return results;
+    }
+
+    private static CompletableFuture<FormValidation> failed(String message) {
+        return CompletableFuture.completedFuture(FormValidation.error(message));
+    }
+
+    private void put(Key key, FormValidation validation) {
+        long now = System.currentTimeMillis();
+        Entry entry = new Entry(now);
+        entry.start();
+        entry.result.complete(validation);
+        entries.compute(key, (k, e) -> e == null || e.isExpired(now) ? entry : e);
+    }
+
+    /**
+     * Drops all validations
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    private void evict(long now) {
+        if (entries.size() <= MAX_SIZE) {
+            return;
+        }
+        entries.values().removeIf(e -> e.isExpired(now));
+        if (entries.size() > MAX_SIZE) {
+            // still full of fresh validations, drop the oldest ones
+            List<Map.Entry<Key, Entry>> sorted = new ArrayList<>(entries.entrySet());
+            sorted.sort(Comparator.comparingLong(e -> e.getValue().created));
+            for (Map.Entry<Key, Entry> e : sorted.subList(0, sorted.size() - MAX_SIZE)) {
+                entries.remove(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    /**
+     * A validation runs with the credentials of the item and the permissions of the user,
+     * so its result is only shared for the same item and user
+     */
+    private static final class Key {
+        private final String name;
+        private final String version;
+        private final LibraryRetriever retriever;
+        private final String item;
+        private final String user;
+
+        Key(String name, String version, LibraryRetriever retriever, Item item, Authentication auth) {
+            this.name = name;
+            this.version = version;
+            this.retriever = retriever;
+            this.item = item == null ? "" : item.getFullName();
+            this.user = auth.getName();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return name.equals(key.name)
+                    && version.equals(key.version)
+                    && retriever == key.retriever
+                    && item.equals(key.item)
+                    && user.equals(key.user);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, version, System.identityHashCode(retriever), item, user);
+        }
+    }
+
+    private static final class Entry {
+        private final CompletableFuture<FormValidation> result = new CompletableFuture<>();
+        private final AtomicBoolean started = new AtomicBoolean();
+        private final long created;
+
+        Entry(long created) {
+            this.created = created;
+        }
+
+        boolean start() {
+            return started.compareAndSet(false, true);
+        }
+
+        boolean isExpired(long now) {
+            FormValidation validation = result.getNow(null);
+            if (validation == null) {
+                return false;
+            }
+            return now - created > (validation.kind == FormValidation.Kind.OK ? TTL : ERROR_TTL);
+        }
+    }
+}
@@ -24,9 +24,17 @@ package io.jenkins.plugins.shared_library_version_override;
  * THE SOFTWARE.
  */
 
+import static org.junit.Assert.*;
+
 import com.cloudbees.hudson.plugins.folder.Folder;
 import hudson.model.Result;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import jenkins.plugins.git.GitSCMSource;
 import jenkins.plugins.git.GitSampleRepoRule;
 import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
@@ -74,6 +82,150 @@ public class FolderConfigurationsTest {
         }
     }
 
+    @Test
+    public void effectiveOverrides() {
+        FolderConfigurations prop = new FolderConfigurations();
+        prop.setOverrides(Arrays.asList(
+                new LibraryCustomConfiguration("greet", "develop"),
+                new LibraryCustomConfiguration(" greet ", "master"),
+                new LibraryCustomConfiguration("other", " "),
+                new LibraryCustomConfiguration(null, "develop")));
+        assertEquals(4, prop.getOverrides().length);
+        assertEquals(1, prop.getEffectiveOverrides().size());
+        assertEquals("develop", prop.getOverride("greet").getVersion());
+        assertNull(prop.getOverride("other"));
+    }
+
+    @Test
+    public void globalLibrariesSnapshot() {
+        OverrideIndex index = OverrideIndex.get();
+        long version = index.getGlobalLibrariesVersion();
+        assertTrue(index.getTrustedLibrariesByName().isEmpty());
+
+        LibraryConfiguration lc =
+                new LibraryConfiguration("greet", new SCMSourceRetriever(new GitSCMSource(sampleRepo.toString())));
+        GlobalLibraries.get().setLibraries(Collections.singletonList(lc));
+        assertEquals(version + 1, index.getGlobalLibrariesVersion());
+        assertSame(lc, index.getTrustedLibrariesByName().get("greet"));
+        assertTrue(index.getUntrustedLibrariesByName(null).isEmpty());
+    }
+
+    @Test
+    public void versionPatterns() {
+        List<String> refs = Arrays.asList("master", "release/2.9", "release/2.10", "v3.4.1", "3.5.0", "4.0.0");
+        assertTrue(VersionPattern.isPattern("release/2.*"));
+        assertFalse(VersionPattern.isPattern("release/2.10"));
+        assertEquals("release/2.10", VersionPattern.resolve("release/2.*", refs));
+        assertEquals("3.5.0", VersionPattern.resolve("^3.4", refs));
+        assertEquals("v3.4.1", VersionPattern.resolve("~3.4", refs));
+        assertNull(VersionPattern.resolve("^5", refs));
+        assertFalse(VersionPattern.isValid("^latest"));
+    }
+
+    @Test
+    public void withPatternOverride() throws Exception {
+        LibraryConfiguration lc =
+                new LibraryConfiguration("greet", new SCMSourceRetriever(new GitSCMSource(sampleRepo.toString())));
+        lc.setDefaultVersion("master");
+        GlobalLibraries.get().setLibraries(Collections.singletonList(lc));
+
+        Folder f = r.jenkins.createProject(Folder.class, "f");
+        FolderConfigurations prop = new FolderConfigurations();
+        prop.setOverrides(Collections.singletonList(new LibraryCustomConfiguration("greet", "dev*")));
+        f.addProperty(prop);
+
+        // listed in background, once
+        assertTrue(RefIndex.get().getRefsAsync(lc.getRetriever(), f).get().contains("develop"));
+
+        WorkflowJob p = f.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("@Library('greet') _; greet(pkg.Clazz.whereAmI())", true));
+        r.assertLogContains("hello from develop", r.buildAndAssertSuccess(p));
+    }
+
+    @Test
+    public void withScopedOverride() throws Exception {
+        LibraryConfiguration lc =
+                new LibraryConfiguration("greet", new SCMSourceRetriever(new GitSCMSource(sampleRepo.toString())));
+        lc.setDefaultVersion("master");
+        GlobalLibraries.get().setLibraries(Collections.singletonList(lc));
+
+        Folder f = r.jenkins.createProject(Folder.class, "f");
+        FolderConfigurations prop = new FolderConfigurations();
+        LibraryCustomConfiguration scoped = new LibraryCustomConfiguration("greet", "develop");
+        scoped.setJobPattern("canary-*");
+        prop.setOverrides(Arrays.asList(new LibraryCustomConfiguration("greet", "master"), scoped));
+        f.addProperty(prop);
+
+        // only the unscoped override applies to the folder
+        assertEquals("master", prop.getOverride("greet").getVersion());
+
+        WorkflowJob canary = f.createProject(WorkflowJob.class, "canary-p");
+        canary.setDefinition(new CpsFlowDefinition("@Library('greet') _; greet(pkg.Clazz.whereAmI())", true));
+        r.assertLogContains("hello from develop", r.buildAndAssertSuccess(canary));
+
+        WorkflowJob p = f.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("@Library('greet') _; greet(pkg.Clazz.whereAmI())", true));
+        r.assertLogContains("hello from master", r.buildAndAssertSuccess(p));
+    }
+
+    @Test
+    public void withGlobalOverrideRule() throws Exception {
+        LibraryConfiguration lc =
+                new LibraryConfiguration("greet", new SCMSourceRetriever(new GitSCMSource(sampleRepo.toString())));
+        lc.setDefaultVersion("master");
+        GlobalLibraries.get().setLibraries(Collections.singletonList(lc));
+
+        Folder f = r.jenkins.createProject(Folder.class, "f");
+        Folder g = f.createProject(Folder.class, "g");
+        Folder h = f.createProject(Folder.class, "h");
+        FolderOverrideRule rule = new FolderOverrideRule("/f/");
+        rule.setOverrides(Collections.singletonList(new LibraryCustomConfiguration("greet", "develop")));
+        GlobalOverrides.get().setRules(Collections.singletonList(rule));
+
+        WorkflowJob p = g.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("@Library('greet') _; greet(pkg.Clazz.whereAmI())", true));
+        r.assertLogContains("hello from develop", r.buildAndAssertSuccess(p));
+        assertEquals("f", OverrideIndex.get().getOverrideSource(g, "greet"));
+
+        // shadowed by the overrides of the folders
+        FolderConfigurations prop = new FolderConfigurations();
+        prop.setOverrides(Collections.singletonList(new LibraryCustomConfiguration("greet", "master")));
+        h.addProperty(prop);
+        WorkflowJob q = h.createProject(WorkflowJob.class, "q");
+        q.setDefinition(new CpsFlowDefinition("@Library('greet') _; greet(pkg.Clazz.whereAmI())", true));
+        r.assertLogContains("hello from master", r.buildAndAssertSuccess(q));
+    }
+
+    @Test
+    public void withTimeBoxedOverride() throws Exception {
+        LibraryConfiguration lc =
+                new LibraryConfiguration("greet", new SCMSourceRetriever(new GitSCMSource(sampleRepo.toString())));
+        lc.setDefaultVersion("master");
+        GlobalLibraries.get().setLibraries(Collections.singletonList(lc));
+
+        Folder f = r.jenkins.createProject(Folder.class, "f");
+        FolderConfigurations prop = new FolderConfigurations();
+        LibraryCustomConfiguration expired = new LibraryCustomConfiguration("greet", "develop");
+        expired.setActiveUntil("2000-01-01T00:00:00Z");
+        LibraryCustomConfiguration scheduled = new LibraryCustomConfiguration("greet", "develop");
+        scheduled.setActiveFrom(Instant.now().plusSeconds(2).toString());
+        prop.setOverrides(Arrays.asList(expired, scheduled));
+        f.addProperty(prop);
+        assertNull(prop.getOverride("greet"));
+        assertTrue(OverrideIndex.get().getTrustedOverrides(f).isEmpty());
+
+        // flipped on by the schedule
+        for (int i = 0; i < 100 && prop.getOverride("greet") == null; i++) {
+            Thread.sleep(100);
+        }
+        assertSame(scheduled, prop.getOverride("greet"));
+        assertEquals(1, OverrideIndex.get().getTrustedOverrides(f).size());
+
+        WorkflowJob p = f.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("@Library('greet') _; greet(pkg.Clazz.whereAmI())", true));
+        r.assertLogContains("hello from develop", r.buildAndAssertSuccess(p));
+    }
+
     @Test
     public void withoutOverrideForGlobalLibrary() throws Exception {
         LibraryConfiguration lc =
@@ -175,6 +327,87 @@ public class FolderConfigurationsTest {
         r.assertLogContains("hello from develop", r.buildAndAssertSuccess(p));
     }
 
+    @Test
+    public void withOverrideForNearestFolderLevelLibrary() throws Exception {
+        LibraryConfiguration immutable =
+                new LibraryConfiguration("greet", new SCMSourceRetriever(new GitSCMSource(sampleRepo.toString())));
+        immutable.setDefaultVersion("master");
+        immutable.setAllowVersionOverride(false);
+
+        Folder parent = r.jenkins.createProject(Folder.class, "parent");
+        parent.addProperty(new FolderLibraries(Collections.singletonList(immutable)));
+
+        LibraryConfiguration lc =
+                new LibraryConfiguration("greet", new SCMSourceRetriever(new GitSCMSource(sampleRepo.toString())));
+        lc.setDefaultVersion("master");
+
+        Folder f = parent.createProject(Folder.class, "f");
+        f.addProperty(new FolderLibraries(Collections.singletonList(lc)));
+
+        FolderConfigurations prop = new FolderConfigurations();
+        LibraryCustomConfiguration item = new LibraryCustomConfiguration("greet", "develop");
+        prop.setOverrides(Collections.singletonList(item));
+        f.addProperty(prop);
+
+        WorkflowJob p = f.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("@Library('greet') _; greet(pkg.Clazz.whereAmI())", true));
+        r.assertLogContains("hello from develop", r.buildAndAssertSuccess(p));
+    }
+
+    @Test
+    public void withOverrideShadowingParentFolder() throws Exception {
+        LibraryConfiguration lc =
+                new LibraryConfiguration("greet", new SCMSourceRetriever(new GitSCMSource(sampleRepo.toString())));
+        lc.setDefaultVersion("master");
+        GlobalLibraries.get().setLibraries(Collections.singletonList(lc));
+
+        Folder parent = r.jenkins.createProject(Folder.class, "parent");
+        FolderConfigurations parentProp = new FolderConfigurations();
+        parentProp.setOverrides(Collections.singletonList(new LibraryCustomConfiguration("greet", "unknown")));
+        parent.addProperty(parentProp);
+
+        Folder f = parent.createProject(Folder.class, "f");
+        FolderConfigurations prop = new FolderConfigurations();
+        prop.setOverrides(Collections.singletonList(new LibraryCustomConfiguration("greet", "develop")));
+        f.addProperty(prop);
+
+        assertEquals(1, OverrideIndex.get().getTrustedOverrides(f).size());
+        assertEquals("develop", OverrideIndex.get().getTrustedOverrides(f).get(0).getDefaultVersion());
+
+        WorkflowJob p = f.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("@Library('greet') _; greet(pkg.Clazz.whereAmI())", true));
+        r.assertLogContains("hello from develop", r.buildAndAssertSuccess(p));
+
+        WorkflowJob p2 = parent.createProject(WorkflowJob.class, "p2");
+        p2.setDefinition(new CpsFlowDefinition("@Library('greet') _; greet(pkg.Clazz.whereAmI())", true));
+        r.assertLogContains("ERROR: Could not resolve unknown", r.buildAndAssertStatus(Result.FAILURE, p2));
+    }
+
+    @Test
+    public void withOverrideReloadedFromDisk() throws Exception {
+        LibraryConfiguration lc =
+                new LibraryConfiguration("greet", new SCMSourceRetriever(new GitSCMSource(sampleRepo.toString())));
+        lc.setDefaultVersion("master");
+        GlobalLibraries.get().setLibraries(Collections.singletonList(lc));
+
+        Folder f = r.jenkins.createProject(Folder.class, "f");
+        FolderConfigurations prop = new FolderConfigurations();
+        prop.setOverrides(Collections.singletonList(new LibraryCustomConfiguration("greet", "develop")));
+        f.addProperty(prop);
+        assertEquals("develop", OverrideIndex.get().getTrustedOverrides(f).get(0).getDefaultVersion());
+
+        File config = f.getConfigFile().getFile();
+        String xml = new String(Files.readAllBytes(config.toPath()), StandardCharsets.UTF_8);
+        Files.write(
+                config.toPath(),
+                xml.replace("<version>develop</version>", "<version>unknown</version>")
+                        .getBytes(StandardCharsets.UTF_8));
+        r.jenkins.reload();
+
+        Folder reloaded = r.jenkins.getItemByFullName("f", Folder.class);
+        assertEquals("unknown", OverrideIndex.get().getTrustedOverrides(reloaded).get(0).getDefaultVersion());
+    }
+
     @Test
     public void withOverrideInAnotherFolder() throws Exception {
         LibraryConfiguration lc =
@@ -194,6 +427,158 @@ public class FolderConfigurationsTest {
         r.assertLogContains("hello from master", r.buildAndAssertSuccess(p));
     }
 
+    @Test
+    public void withOverrideUpdatedBetweenBuilds() throws Exception {
+        LibraryConfiguration lc =
+                new LibraryConfiguration("greet", new SCMSourceRetriever(new GitSCMSource(sampleRepo.toString())));
+        lc.setDefaultVersion("master");
+        GlobalLibraries.get().setLibraries(Collections.singletonList(lc));
+
+        Folder f = r.jenkins.createProject(Folder.class, "f");
+        FolderConfigurations prop = new FolderConfigurations();
+        LibraryCustomConfiguration item = new LibraryCustomConfiguration("greet", "develop");
+        prop.setOverrides(Collections.singletonList(item));
+        f.addProperty(prop);
+
+        WorkflowJob p = f.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("@Library('greet') _; greet(pkg.Clazz.whereAmI())", true));
+        r.assertLogContains("hello from develop", r.buildAndAssertSuccess(p));
+
+        FolderConfigurations newProp = new FolderConfigurations();
+        newProp.setOverrides(Collections.emptyList());
+        f.getProperties().replace(newProp);
+        r.assertLogContains("hello from master", r.buildAndAssertSuccess(p));
+    }
+
+    @Test
+    public void auditTrail() throws Exception {
+        LibraryConfiguration lc =
+                new LibraryConfiguration("greet", new SCMSourceRetriever(new GitSCMSource(sampleRepo.toString())));
+        lc.setDefaultVersion("master");
+        GlobalLibraries.get().setLibraries(Collections.singletonList(lc));
+        // also overridden as untrusted, then discarded as a duplicate of the trusted one
+        LibraryConfiguration untrusted =
+                new LibraryConfiguration("greet", new SCMSourceRetriever(new GitSCMSource(sampleRepo.toString())));
+        untrusted.setDefaultVersion("master");
+        GlobalUntrustedLibraries.get().setLibraries(Collections.singletonList(untrusted));
+
+        Folder parent = r.jenkins.createProject(Folder.class, "parent");
+        FolderConfigurations prop = new FolderConfigurations();
+        prop.setOverrides(Collections.singletonList(new LibraryCustomConfiguration("greet", "develop")));
+        parent.addProperty(prop);
+        Folder f = parent.createProject(Folder.class, "f");
+
+        WorkflowJob p = f.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("@Library('greet') _; greet(pkg.Clazz.whereAmI())", true));
+        r.buildAndAssertSuccess(p);
+
+        ResolutionAuditLog log = ResolutionAuditLog.get();
+        log.flush();
+        List<ResolutionAuditLog.Record> records = log.query("parent/f", "greet", 10);
+        assertEquals(1, records.size());
+        assertEquals("parent/f/p", records.get(0).getJob());
+        assertEquals(1, records.get(0).getBuild());
+        assertEquals("parent", records.get(0).getFolder());
+        assertEquals("develop", records.get(0).getVersion());
+        assertTrue(records.get(0).isTrusted());
+        assertTrue(log.query("other", null, 10).isEmpty());
+    }
+
+    @Test
+    public void batchOverrides() throws Exception {
+        LibraryConfiguration lc =
+                new LibraryConfiguration("greet", new SCMSourceRetriever(new GitSCMSource(sampleRepo.toString())));
+        lc.setDefaultVersion("master");
+        GlobalLibraries.get().setLibraries(Collections.singletonList(lc));
+
+        Folder teams = r.jenkins.createProject(Folder.class, "teams");
+        Folder a = teams.createProject(Folder.class, "a");
+        Folder b = teams.createProject(Folder.class, "b");
+        Folder other = r.jenkins.createProject(Folder.class, "other");
+
+        List<BatchOverrides.FolderResult> results =
+                BatchOverrides.execute(BatchOverrides.Operation.APPLY, "greet", "develop", teams, "teams/*");
+        assertEquals(2, results.size());
+        for (BatchOverrides.FolderResult result : results) {
+            assertEquals(BatchOverrides.Status.UPDATED, result.getStatus());
+        }
+        assertEquals("develop", a.getProperties().get(FolderConfigurations.class).getOverride("greet").getVersion());
+        assertEquals("develop", b.getProperties().get(FolderConfigurations.class).getOverride("greet").getVersion());
+        assertNull(teams.getProperties().get(FolderConfigurations.class));
+        assertNull(other.getProperties().get(FolderConfigurations.class));
+        OverridePersistence.get().flush();
+        assertTrue(a.getConfigFile().asString().contains("develop"));
+
+        results = BatchOverrides.execute(BatchOverrides.Operation.APPLY, "greet", "unknown", teams, "teams/a");
+        assertEquals(BatchOverrides.Status.SKIPPED, results.get(0).getStatus());
+
+        WorkflowJob p = a.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("@Library('greet') _; greet(pkg.Clazz.whereAmI())", true));
+        r.assertLogContains("hello from develop", r.buildAndAssertSuccess(p));
+
+        results = BatchOverrides.execute(BatchOverrides.Operation.REMOVE, "greet", null, null, "**");
+        assertEquals(4, results.size());
+        assertEquals(0, a.getProperties().get(FolderConfigurations.class).getOverrides().length);
+        r.assertLogContains("hello from master", r.buildAndAssertSuccess(p));
+    }
+
+    @Test
+    public void batchOverridesKeepScheduled() throws Exception {
+        LibraryConfiguration lc =
+                new LibraryConfiguration("greet", new SCMSourceRetriever(new GitSCMSource(sampleRepo.toString())));
+        lc.setDefaultVersion("master");
+        GlobalLibraries.get().setLibraries(Collections.singletonList(lc));
+
+        Folder f = r.jenkins.createProject(Folder.class, "f");
+        FolderConfigurations prop = new FolderConfigurations();
+        LibraryCustomConfiguration scheduled = new LibraryCustomConfiguration("greet", "develop");
+        scheduled.setActiveFrom(Instant.now().plusSeconds(3600).toString());
+        prop.setOverrides(Collections.singletonList(scheduled));
+        f.addProperty(prop);
+
+        List<BatchOverrides.FolderResult> results =
+                BatchOverrides.execute(BatchOverrides.Operation.APPLY, "greet", "master", null, "f");
+        assertEquals(BatchOverrides.Status.UPDATED, results.get(0).getStatus());
+        LibraryCustomConfiguration[] overrides = f.getProperties().get(FolderConfigurations.class).getOverrides();
+        assertEquals(2, overrides.length);
+        assertEquals("develop", overrides[0].getVersion());
+        assertNotNull(overrides[0].getActiveFrom());
+        assertEquals("master", overrides[1].getVersion());
+        assertFalse(overrides[1].isTimeBoxed());
+
+        results = BatchOverrides.execute(BatchOverrides.Operation.REMOVE, "greet", null, null, "f");
+        assertEquals(BatchOverrides.Status.UPDATED, results.get(0).getStatus());
+        overrides = f.getProperties().get(FolderConfigurations.class).getOverrides();
+        assertEquals(1, overrides.length);
+        assertTrue(overrides[0].isTimeBoxed());
+    }
+
+    @Test
+    public void batchOverridesKeepScoped() throws Exception {
+        LibraryConfiguration lc =
+                new LibraryConfiguration("greet", new SCMSourceRetriever(new GitSCMSource(sampleRepo.toString())));
+        lc.setDefaultVersion("master");
+        GlobalLibraries.get().setLibraries(Collections.singletonList(lc));
+
+        Folder f = r.jenkins.createProject(Folder.class, "f");
+        FolderConfigurations prop = new FolderConfigurations();
+        LibraryCustomConfiguration scoped = new LibraryCustomConfiguration("greet", "develop");
+        scoped.setJobPattern("canary-*");
+        prop.setOverrides(Arrays.asList(new LibraryCustomConfiguration("greet", "master"), scoped));
+        f.addProperty(prop);
+
+        List<BatchOverrides.FolderResult> results =
+                BatchOverrides.execute(BatchOverrides.Operation.REMOVE, "greet", null, null, "f");
+        assertEquals(BatchOverrides.Status.UPDATED, results.get(0).getStatus());
+        LibraryCustomConfiguration[] overrides = f.getProperties().get(FolderConfigurations.class).getOverrides();
+        assertEquals(1, overrides.length);
+        assertTrue(overrides[0].isScoped());
+
+        WorkflowJob canary = f.createProject(WorkflowJob.class, "canary-p");
+        canary.setDefinition(new CpsFlowDefinition("@Library('greet') _; greet(pkg.Clazz.whereAmI())", true));
+        r.assertLogContains("hello from develop", r.buildAndAssertSuccess(canary));
+    }
+
     @Test
     public void withJenkinsfileOverride() throws Exception {
         LibraryConfiguration lc =
@@ -212,6 +597,25 @@ public class FolderConfigurationsTest {
         r.assertLogContains("hello from master", r.buildAndAssertSuccess(p));
     }
 
+    @Test
+    public void withOverrideForImplicitGlobalLibrary() throws Exception {
+        LibraryConfiguration lc =
+                new LibraryConfiguration("greet", new SCMSourceRetriever(new GitSCMSource(sampleRepo.toString())));
+        lc.setDefaultVersion("master");
+        lc.setImplicit(true);
+        GlobalLibraries.get().setLibraries(Collections.singletonList(lc));
+
+        Folder f = r.jenkins.createProject(Folder.class, "f");
+        FolderConfigurations prop = new FolderConfigurations();
+        LibraryCustomConfiguration item = new LibraryCustomConfiguration("greet", "develop");
+        prop.setOverrides(Collections.singletonList(item));
+        f.addProperty(prop);
+
+        WorkflowJob p = f.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("greet(pkg.Clazz.whereAmI())", true));
+        r.assertLogContains("hello from develop", r.buildAndAssertSuccess(p));
+    }
+
     @Test
     public void withInvalidVersionOverride() throws Exception {
         LibraryConfiguration lc =
@@ -249,6 +653,32 @@ public class FolderConfigurationsTest {
         r.assertLogContains("hello from master", r.buildAndAssertSuccess(p));
     }
 
+    @Test
+    public void metricsForImmutableGlobalLibrary() throws Exception {
+        LibraryConfiguration lc =
+                new LibraryConfiguration("greet", new SCMSourceRetriever(new GitSCMSource(sampleRepo.toString())));
+        lc.setDefaultVersion("master");
+        lc.setAllowVersionOverride(false);
+        GlobalLibraries.get().setLibraries(Collections.singletonList(lc));
+
+        Folder f = r.jenkins.createProject(Folder.class, "f");
+        FolderConfigurations prop = new FolderConfigurations();
+        LibraryCustomConfiguration item = new LibraryCustomConfiguration("greet", "develop");
+        prop.setOverrides(Collections.singletonList(item));
+        f.addProperty(prop);
+
+        WorkflowJob p = f.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("@Library('greet') _; greet(pkg.Clazz.whereAmI())", true));
+        r.buildAndAssertSuccess(p);
+        r.buildAndAssertSuccess(p);
+
+        OverrideMetrics metrics = OverrideMetrics.get();
+        assertTrue(metrics.getCount("resolver.trusted.calls") >= 2);
+        assertTrue(metrics.getCount("overrides.skipped.version_override_not_allowed") >= 1);
+        assertTrue(metrics.getCacheCount("resolution", true) >= 1);
+        assertTrue(metrics.getCacheCount("resolution", false) >= 1);
+    }
+
     @Test
     public void withImmutableGlobalUntrustedLibrary() throws Exception {
         LibraryConfiguration lc =
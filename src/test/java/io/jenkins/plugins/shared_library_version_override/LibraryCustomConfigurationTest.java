@@ -2,9 +2,22 @@ package io.jenkins.plugins.shared_library_version_override;
 
 import static org.junit.Assert.*;
 
+import com.cloudbees.hudson.plugins.folder.Folder;
+import hudson.model.Item;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+import java.net.URL;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import jenkins.model.Jenkins;
 import jenkins.plugins.git.GitSCMSource;
 import jenkins.plugins.git.GitSampleRepoRule;
+import org.htmlunit.HttpMethod;
+import org.htmlunit.WebRequest;
 import org.jenkinsci.plugins.workflow.libs.GlobalLibraries;
 import org.jenkinsci.plugins.workflow.libs.LibraryConfiguration;
 import org.jenkinsci.plugins.workflow.libs.SCMSourceRetriever;
@@ -12,6 +25,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockAuthorizationStrategy;
 
 public class LibraryCustomConfigurationTest {
     @Rule
@@ -48,4 +62,108 @@ public class LibraryCustomConfigurationTest {
         assertEquals("greet", item.getName());
         assertEquals("master", item.getVersion());
     }
+
+    @Test
+    public void checkVersionRequiresConfigure() throws Exception {
+        Folder f = r.jenkins.createProject(Folder.class, "f");
+        r.jenkins.setSecurityRealm(r.createDummySecurityRealm());
+        r.jenkins.setAuthorizationStrategy(new MockAuthorizationStrategy()
+                .grant(Jenkins.READ)
+                .everywhere()
+                .to("reader", "configurer")
+                .grant(Item.READ, Item.CONFIGURE)
+                .onItems(f)
+                .to("configurer")
+                .grant(Item.READ)
+                .onItems(f)
+                .to("reader"));
+
+        String path = "job/f/descriptorByName/" + LibraryCustomConfiguration.class.getName()
+                + "/checkVersion?name=greet&version=develop";
+        JenkinsRule.WebClient wc =
+                r.createWebClient().withThrowExceptionOnFailingStatusCode(false).login("reader");
+        WebRequest request = new WebRequest(new URL(r.getURL(), path), HttpMethod.POST);
+        assertEquals(403, wc.getPage(wc.addCrumb(request)).getWebResponse().getStatusCode());
+
+        wc = r.createWebClient().withThrowExceptionOnFailingStatusCode(false).login("configurer");
+        request = new WebRequest(new URL(r.getURL(), path), HttpMethod.POST);
+        assertEquals(200, wc.getPage(wc.addCrumb(request)).getWebResponse().getStatusCode());
+    }
+
+    @Test
+    public void cachedVersionValidation() throws Exception {
+        LibraryConfiguration lc = GlobalLibraries.get().getLibraries().get(0);
+        VersionValidationCache cache = VersionValidationCache.get();
+
+        CompletableFuture<FormValidation> master = cache.validateAsync("greet", "master", lc.getRetriever(), null);
+        assertSame(master, cache.validateAsync("greet", "master", lc.getRetriever(), null));
+        assertEquals(FormValidation.Kind.OK, master.get().kind);
+
+        // not shared with other users or items, which may use other credentials
+        try (ACLContext ctx = ACL.as2(Jenkins.ANONYMOUS2)) {
+            assertNotSame(master, cache.validateAsync("greet", "master", lc.getRetriever(), null));
+        }
+        Folder f = r.jenkins.createProject(Folder.class, "f");
+        assertNotSame(master, cache.validateAsync("greet", "master", lc.getRetriever(), f));
+
+        FormValidation unknown = cache.validateAsync("greet", "unknown", lc.getRetriever(), null).get();
+        assertNotEquals(FormValidation.Kind.OK, unknown.kind);
+    }
+
+    @Test
+    public void bulkVersionValidation() throws Exception {
+        Map<String, CompletableFuture<FormValidation>> validations = VersionValidationCache.get()
+                .validateAllAsync(
+                        Arrays.asList(
+                                new LibraryCustomConfiguration("greet", "master"),
+                                new LibraryCustomConfiguration("greet", "develop"),
+                                new LibraryCustomConfiguration("greet", "unknown"),
+                                new LibraryCustomConfiguration("other", "master")),
+                        FolderConfigurations.indexByName(GlobalLibraries.get().getLibraries()),
+                        null);
+        assertEquals(FormValidation.Kind.OK, validations.get("greet@master").get().kind);
+        assertEquals(FormValidation.Kind.OK, validations.get("greet@develop").get().kind);
+        assertNotEquals(FormValidation.Kind.OK, validations.get("greet@unknown").get().kind);
+        assertEquals(FormValidation.Kind.ERROR, validations.get("other@master").get().kind);
+    }
+
+    @Test
+    public void nameItems() throws Exception {
+        LibraryConfiguration greeting =
+                new LibraryConfiguration("greeting", new SCMSourceRetriever(new GitSCMSource(sampleRepo.toString())));
+        LibraryConfiguration frozen =
+                new LibraryConfiguration("frozen", new SCMSourceRetriever(new GitSCMSource(sampleRepo.toString())));
+        frozen.setAllowVersionOverride(false);
+        LibraryConfiguration other =
+                new LibraryConfiguration("other", new SCMSourceRetriever(new GitSCMSource(sampleRepo.toString())));
+        GlobalLibraries.get()
+                .setLibraries(Arrays.asList(GlobalLibraries.get().getLibraries().get(0), greeting, frozen, other));
+
+        LibraryCustomConfiguration.DescriptorImpl descriptor =
+                r.jenkins.getDescriptorByType(LibraryCustomConfiguration.DescriptorImpl.class);
+        ListBoxModel all = descriptor.doFillNameItems(null, null, null, 0, 0);
+        assertEquals(3, all.size());
+        assertEquals("greet", all.get(0).name);
+
+        ListBoxModel filtered = descriptor.doFillNameItems(null, null, "gre", 1, 1);
+        assertEquals(1, filtered.size());
+        assertEquals("greeting", filtered.get(0).name);
+
+        // the saved library of a row is kept, selected, even if it does not allow version override
+        ListBoxModel saved = descriptor.doFillNameItems(null, "frozen", null, 0, 0);
+        assertEquals(4, saved.size());
+        assertEquals("frozen", saved.get(0).value);
+        assertTrue(saved.get(0).selected);
+        assertEquals(3, descriptor.doFillNameItems(null, "greet", null, 0, 0).size());
+    }
+
+    @Test
+    public void resolutionContext() throws Exception {
+        ResolutionContext context = ResolutionContext.of(null);
+        assertNotNull(context.getLibrary("greet"));
+        assertTrue(context.isOverridable("greet"));
+        assertNull(context.getLibrary("other"));
+        assertFalse(context.isOverridable("other"));
+        assertEquals(1, context.getLibraries().size());
+    }
 }
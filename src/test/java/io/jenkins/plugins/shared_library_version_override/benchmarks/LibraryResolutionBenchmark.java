@@ -0,0 +1,149 @@
+package io.jenkins.plugins.shared_library_version_override.benchmarks;
+
+import com.cloudbees.hudson.plugins.folder.Folder;
+import hudson.ExtensionList;
+import hudson.model.ItemGroup;
+import io.jenkins.plugins.shared_library_version_override.FolderConfigurations;
+import io.jenkins.plugins.shared_library_version_override.LibraryCustomConfiguration;
+import io.jenkins.plugins.shared_library_version_override.OverrideIndex;
+import java.util.*;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+import jenkins.model.Jenkins;
+import jenkins.plugins.git.GitSCMSource;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.libs.FolderLibraries;
+import org.jenkinsci.plugins.workflow.libs.GlobalLibraries;
+import org.jenkinsci.plugins.workflow.libs.LibraryConfiguration;
+import org.jenkinsci.plugins.workflow.libs.SCMSourceRetriever;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Library resolution cost on synthetic folder trees
+ */
+@JmhBenchmark
+public class LibraryResolutionBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class FolderTreeState extends JmhBenchmarkState {
+        /**
+         * Number of nested folders above the job
+         */
+        @Param({"1", "5", "20"})
+        public int depth;
+
+        /**
+         * Number of global libraries, plus as many folder libraries spread over the folders
+         */
+        @Param({"1", "100", "1000"})
+        public int libraries;
+
+        /**
+         * Number of overrides in each folder, half of the global libraries and half of the folder libraries
+         */
+        @Param({"0", "20", "200"})
+        public int overrides;
+
+        WorkflowJob job;
+        ItemGroup<?> group;
+        Collection<LibraryConfiguration> allLibraries;
+
+        /**
+         * The libraries requested by the job, all the fixture libraries at their default version
+         */
+        Map<String, String> libraryVersions;
+        LibraryCustomConfiguration override;
+        FolderConfigurations.CustomTrustedLibraryResolver trustedResolver;
+        FolderConfigurations.CustomUntrustedLibraryResolver untrustedResolver;
+
+        @Override
+        public void setup() throws Exception {
+            List<LibraryConfiguration> globalLibraries = createLibraries("lib", libraries);
+            GlobalLibraries.get().setLibraries(globalLibraries);
+            libraryVersions = new HashMap<>();
+            for (LibraryConfiguration lib : globalLibraries) {
+                libraryVersions.put(lib.getName(), null);
+            }
+
+            ItemGroup<?> parent = Jenkins.get();
+            for (int d = 0; d < depth; d++) {
+                Folder f = parent == Jenkins.get()
+                        ? Jenkins.get().createProject(Folder.class, "f" + d)
+                        : ((Folder) parent).createProject(Folder.class, "f" + d);
+                int folderLibraries = libraries / depth;
+                List<LibraryConfiguration> libs = createLibraries("f" + d + "-lib", folderLibraries);
+                f.addProperty(new FolderLibraries(libs));
+                for (LibraryConfiguration lib : libs) {
+                    libraryVersions.put(lib.getName(), null);
+                }
+                List<LibraryCustomConfiguration> items = new ArrayList<>();
+                for (int o = 0; o < overrides; o++) {
+                    String name = o % 2 == 0 || folderLibraries == 0
+                            ? "lib-" + (o % libraries)
+                            : "f" + d + "-lib-" + (o % folderLibraries);
+                    items.add(new LibraryCustomConfiguration(name, "v" + d));
+                }
+                FolderConfigurations prop = new FolderConfigurations();
+                prop.setOverrides(items);
+                f.addProperty(prop);
+                parent = f;
+            }
+            job = ((Folder) parent).createProject(WorkflowJob.class, "p");
+            group = job.getParent();
+            allLibraries = FolderConfigurations.getAllLibrariesForGroup(group);
+            override = new LibraryCustomConfiguration("lib-" + (libraries - 1), "develop");
+            trustedResolver =
+                    ExtensionList.lookupSingleton(FolderConfigurations.CustomTrustedLibraryResolver.class);
+            untrustedResolver =
+                    ExtensionList.lookupSingleton(FolderConfigurations.CustomUntrustedLibraryResolver.class);
+        }
+
+        private static List<LibraryConfiguration> createLibraries(String prefix, int count) {
+            List<LibraryConfiguration> libs = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                LibraryConfiguration lc = new LibraryConfiguration(
+                        prefix + "-" + i,
+                        new SCMSourceRetriever(new GitSCMSource("https://example.com/" + prefix + "-" + i + ".git")));
+                lc.setDefaultVersion("master");
+                libs.add(lc);
+            }
+            return libs;
+        }
+    }
+
+    @Benchmark
+    public void trustedForJob(FolderTreeState state, Blackhole blackhole) {
+        blackhole.consume(state.trustedResolver.forJob(state.job, state.libraryVersions));
+    }
+
+    @Benchmark
+    public void untrustedForJob(FolderTreeState state, Blackhole blackhole) {
+        blackhole.consume(state.untrustedResolver.forJob(state.job, state.libraryVersions));
+    }
+
+    @Benchmark
+    public void trustedForJobAfterChange(FolderTreeState state, Blackhole blackhole) {
+        OverrideIndex.get().invalidateAll();
+        blackhole.consume(state.trustedResolver.forJob(state.job, state.libraryVersions));
+    }
+
+    @Benchmark
+    public void untrustedForJobAfterChange(FolderTreeState state, Blackhole blackhole) {
+        OverrideIndex.get().invalidateAll();
+        blackhole.consume(state.untrustedResolver.forJob(state.job, state.libraryVersions));
+    }
+
+    @Benchmark
+    public void getAllLibrariesForGroup(FolderTreeState state, Blackhole blackhole) {
+        blackhole.consume(FolderConfigurations.getAllLibrariesForGroup(state.group));
+    }
+
+    @Benchmark
+    public void getLibraryConfiguration(FolderTreeState state, Blackhole blackhole) {
+        blackhole.consume(FolderConfigurations.getLibraryConfiguration(state.override, state.allLibraries));
+    }
+}